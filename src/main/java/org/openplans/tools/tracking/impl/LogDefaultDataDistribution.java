@@ -1,5 +1,6 @@
 package org.openplans.tools.tracking.impl;
 
+import gnu.trove.map.hash.THashMap;
 import gov.sandia.cognition.factory.Factory;
 import gov.sandia.cognition.learning.algorithm.AbstractBatchAndIncrementalLearner;
 import gov.sandia.cognition.math.MutableDouble;
@@ -11,9 +12,23 @@ import gov.sandia.cognition.util.AbstractCloneableSerializable;
 import gov.sandia.cognition.util.ArgumentChecker;
 import gov.sandia.cognition.util.WeightedValue;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Random;
 
+import org.openplans.tools.tracking.impl.statistics.LogWeights;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Data distribution over particles, with a count kept for each entry. <br>
+ * Entries live in an open-addressing Trove map, the total count is kept up
+ * to date on every change, and sampling uses a cumulative-weight array that
+ * is rebuilt only after the distribution changes. Clearing keeps the map's
+ * capacity and the sampling arrays, so an instance can be reused between
+ * updates.
+ */
 public class LogDefaultDataDistribution<KeyType> extends
     AbstractDataDistribution<KeyType> {
 
@@ -246,7 +261,21 @@ public class LogDefaultDataDistribution<KeyType> extends
    * Total of the counts in the distribution
    */
   protected double total;
-  
+
+  /**
+   * Sum of the entries' counts.
+   */
+  protected int totalCount;
+
+  /*
+   * Sampling arrays: the keys with positive weight and their cumulative
+   * weights, valid while samplerDirty is false.
+   */
+  private transient Object[] sampleKeys;
+  private transient double[] cumulative;
+  private transient int sampleSize;
+  private transient boolean samplerDirty = true;
+
   public int getCount(KeyType key) {
     return ((MutableDoubleCount)this.map.get(key)).getCount(); 
   }
@@ -266,7 +295,7 @@ public class LogDefaultDataDistribution<KeyType> extends
    */
   public LogDefaultDataDistribution(
     final DataDistribution<? extends KeyType> other) {
-    this(new LinkedHashMap<KeyType, MutableDouble>(other.size()), 0.0);
+    this(new THashMap<KeyType, MutableDouble>(other.size()), 0.0);
     this.incrementAll(other);
   }
 
@@ -277,8 +306,7 @@ public class LogDefaultDataDistribution<KeyType> extends
    *          Initial capacity of the Map
    */
   public LogDefaultDataDistribution(int initialCapacity) {
-    this(new LinkedHashMap<KeyType, MutableDouble>(initialCapacity),
-        0.0);
+    this(new THashMap<KeyType, MutableDouble>(initialCapacity), 0.0);
   }
 
   /**
@@ -311,6 +339,8 @@ public class LogDefaultDataDistribution<KeyType> extends
   public void clear() {
     super.clear();
     this.total = 0.0;
+    this.totalCount = 0;
+    this.samplerDirty = true;
   }
 
   @Override
@@ -322,7 +352,7 @@ public class LogDefaultDataDistribution<KeyType> extends
     }
     
     assert this.getTotalCount() == clone.getTotalCount();
-    
+
     clone.total = this.total;
     return clone;
   }
@@ -348,12 +378,7 @@ public class LogDefaultDataDistribution<KeyType> extends
   }
 
   public int getTotalCount() {
-    int total = 0;
-    for (java.util.Map.Entry<KeyType, MutableDouble> entry : this.map.entrySet()) {
-      MutableDoubleCount count = (MutableDoubleCount)entry.getValue();
-      total += count.getCount();
-    } 
-    return total;
+    return this.totalCount;
   }
   
   @Override
@@ -379,12 +404,14 @@ public class LogDefaultDataDistribution<KeyType> extends
         // our total tracker in some subclasses...
         // Also it's more efficient this way (avoid another get)
         this.map.put(key, new MutableDoubleCount(value));
+        this.totalCount += 1;
         delta = value;
       } else {
         delta = 0.0;
       }
       newValue = value;
     } else {
+      final int oldCount = entry.getCount();
       if (entry.value + value >= 0.0) {
         delta = value;
         entry.plusEquals(value);
@@ -392,10 +419,12 @@ public class LogDefaultDataDistribution<KeyType> extends
         delta = -entry.value;
         entry.set(0d);
       }
+      this.totalCount += entry.getCount() - oldCount;
       newValue = entry.value;
     }
 
     this.total += delta;
+    this.samplerDirty = true;
     return newValue;
   }
 
@@ -417,20 +446,87 @@ public class LogDefaultDataDistribution<KeyType> extends
       if (value > 0.0) {
         this.map.put(key, new MutableDoubleCount(value, count));
         this.total += value;
+        this.totalCount += count;
       }
-    } else if (value > 0.0) {
-      this.total += value - entry.value;
-      entry.set(value, count);
     } else {
-      entry.set(0d, count);
+      this.totalCount += count - entry.getCount();
+      if (value > 0.0) {
+        this.total += value - entry.value;
+        entry.set(value, count);
+      } else {
+        entry.set(0d, count);
+      }
     }
+    this.samplerDirty = true;
   }
 
   public void copyAll(DataDistribution<KeyType> posteriorDist) {
+    if (posteriorDist instanceof LogDefaultDataDistribution) {
+      for (java.util.Map.Entry<KeyType, MutableDouble> entry : ((LogDefaultDataDistribution<KeyType>) posteriorDist).map
+          .entrySet()) {
+        final MutableDoubleCount count = (MutableDoubleCount) entry
+            .getValue();
+        this.set(entry.getKey(), count.getValue(), count.getCount());
+      }
+      return;
+    }
     for (java.util.Map.Entry<KeyType, ? extends Number> entry : posteriorDist.asMap().entrySet()) {
       MutableDoubleCount count = (MutableDoubleCount)entry.getValue();
       this.set(entry.getKey(), count.getValue(), count.getCount());
     } 
   }
 
+  @Override
+  public KeyType sample(Random random) {
+    updateSampler();
+    return sampleAt(LogWeights.sampleIndex(cumulative, sampleSize, random));
+  }
+
+  @Override
+  public ArrayList<KeyType> sample(Random random, int numSamples) {
+    updateSampler();
+    final ArrayList<KeyType> samples = new ArrayList<KeyType>(numSamples);
+    for (int i = 0; i < numSamples; i++) {
+      samples.add(sampleAt(LogWeights.sampleIndex(
+          cumulative, sampleSize, random)));
+    }
+    return samples;
+  }
+
+  @SuppressWarnings("unchecked")
+  private KeyType sampleAt(int index) {
+    return (KeyType) sampleKeys[index];
+  }
+
+  /**
+   * Rebuilds the cumulative weights if the distribution has changed, reusing
+   * the arrays when they're big enough.
+   */
+  private void updateSampler() {
+    if (!samplerDirty && sampleKeys != null)
+      return;
+    final int size = this.map.size();
+    if (sampleKeys == null || sampleKeys.length < size) {
+      sampleKeys = new Object[size];
+      cumulative = new double[size];
+    }
+    double runningTotal = 0d;
+    int n = 0;
+    for (java.util.Map.Entry<KeyType, MutableDouble> entry : this.map
+        .entrySet()) {
+      final double value = entry.getValue().value;
+      if (value <= 0d)
+        continue;
+      runningTotal += value;
+      sampleKeys[n] = entry.getKey();
+      cumulative[n] = runningTotal;
+      n++;
+    }
+    Preconditions.checkState(n > 0, "no positive weights to sample");
+    if (n < sampleSize)
+      Arrays.fill(sampleKeys, n, sampleSize, null);
+    sampleSize = n;
+    samplerDirty = false;
+  }
+
 }
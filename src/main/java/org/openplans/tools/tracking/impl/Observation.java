@@ -37,8 +37,28 @@ public class Observation implements Comparable<Observation> {
   private static Map<String, Observation> vehiclesToRecords = Maps
       .newConcurrentMap();
 
-  private static final SimpleDateFormat sdf = new SimpleDateFormat(
-      "yyyy-MM-dd hh:mm:ss");
+  /*
+   * Guards the read-check-put on vehiclesToRecords, striped by vehicle id.
+   * Must be a power of two.
+   */
+  private static final int LOCK_STRIPES = 64;
+  private static final Object[] recordLocks = new Object[LOCK_STRIPES];
+
+  static {
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      recordLocks[i] = new Object();
+    }
+  }
+
+  /*
+   * SimpleDateFormat isn't thread-safe.
+   */
+  private static final ThreadLocal<SimpleDateFormat> sdf = new ThreadLocal<SimpleDateFormat>() {
+    @Override
+    protected SimpleDateFormat initialValue() {
+      return new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
+    }
+  };
 
   private Observation(String vehicleId, Date timestamp,
     Coordinate obsCoords, Coordinate obsPoint, Double velocity,
@@ -156,6 +176,23 @@ public class Observation implements Comparable<Observation> {
     this.prevObs = null;
   }
 
+  /**
+   * A copy of this observation that follows prevObs rather than the
+   * observation registered before it, for when a filter doesn't see every
+   * registered observation, e.g. because some were coalesced away. As with
+   * registration, prevObs's own link is dropped so we don't hold on to every
+   * record.
+   */
+  public Observation withPreviousObservation(Observation prevObs) {
+    if (prevObs != null) {
+      Preconditions.checkArgument(prevObs.getTimestamp().before(
+          timestamp));
+      prevObs.reset();
+    }
+    return new Observation(vehicleId, timestamp, obsCoords, obsPoint,
+        velocity, heading, accuracy, prevObs, recordNumber);
+  }
+
   @Override
   public String toString() {
     return "Observation [vehicleId=" + vehicleId + ", timestamp="
@@ -169,43 +206,50 @@ public class Observation implements Comparable<Observation> {
     vehiclesToRecords.clear();
   }
 
-  public static synchronized Observation createObservation(
+  /**
+   * Creates the vehicle's next observation. The projection is done up-front;
+   * only the time-order check and record numbering hold a lock, and that's
+   * one stripe keyed by the vehicle id.
+   */
+  public static Observation createObservation(
     String vehicleId, Date time, Coordinate obsCoords,
     Double velocity, Double heading, Double accuracy)
       throws TimeOrderException {
     final Coordinate obsPoint = GeoUtils
         .convertToEuclidean(obsCoords);
 
-    final Observation prevObs = vehiclesToRecords.get(vehicleId);
+    synchronized (recordLocks[vehicleId.hashCode() & (LOCK_STRIPES - 1)]) {
+      final Observation prevObs = vehiclesToRecords.get(vehicleId);
 
-    /*
-     * do this so we don't potentially hold on to every record in memory
-     */
-    final int recordNumber;
-    if (prevObs != null) {
       /*
-       * We check for out-of-time-order records.
+       * do this so we don't potentially hold on to every record in memory
        */
-      if (time.getTime() <= prevObs.getTimestamp().getTime())
-        throw new TimeOrderException();
-
-      recordNumber = prevObs.getRecordNumber() + 1;
-      prevObs.reset();
-
-    } else {
-      recordNumber = 0;
-    }
+      final int recordNumber;
+      if (prevObs != null) {
+        /*
+         * We check for out-of-time-order records.
+         */
+        if (time.getTime() <= prevObs.getTimestamp().getTime())
+          throw new TimeOrderException();
+
+        recordNumber = prevObs.getRecordNumber() + 1;
+        prevObs.reset();
+
+      } else {
+        recordNumber = 0;
+      }
 
-    final Observation obs = new Observation(
-        vehicleId, time, obsCoords, obsPoint, velocity, heading,
-        accuracy, prevObs, recordNumber);
+      final Observation obs = new Observation(
+          vehicleId, time, obsCoords, obsPoint, velocity, heading,
+          accuracy, prevObs, recordNumber);
 
-    vehiclesToRecords.put(vehicleId, obs);
+      vehiclesToRecords.put(vehicleId, obs);
 
-    return obs;
+      return obs;
+    }
   }
 
-  public static synchronized Observation createObservation(
+  public static Observation createObservation(
     String vehicleId, String timestamp, String latStr, String lonStr,
     String velocity, String heading, String accuracy)
       throws NumberFormatException, ParseException,
@@ -222,14 +266,17 @@ public class Observation implements Comparable<Observation> {
         .parseDouble(heading) : null;
     final Double accuracyd = accuracy != null ? Double
         .parseDouble(accuracy) : null;
-    final Date time = sdf.parse(timestamp);
+    final Date time = sdf.get().parse(timestamp);
 
     return createObservation(
         vehicleId, time, obsCoords, velocityd, headingd, accuracyd);
   }
 
+  /**
+   * The calling thread's timestamp format.
+   */
   public static SimpleDateFormat getSdf() {
-    return sdf;
+    return sdf.get();
   }
 
   public static Map<String, Observation> getVehiclesToRecords() {
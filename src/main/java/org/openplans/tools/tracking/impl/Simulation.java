@@ -2,8 +2,6 @@ package org.openplans.tools.tracking.impl;
 
 import gov.sandia.cognition.math.matrix.Matrix;
 import gov.sandia.cognition.math.matrix.Vector;
-import gov.sandia.cognition.math.matrix.mtj.DenseMatrixFactoryMTJ;
-import gov.sandia.cognition.math.matrix.mtj.decomposition.CholeskyDecompositionMTJ;
 import gov.sandia.cognition.statistics.distribution.MultivariateGaussian;
 
 import java.util.Date;
@@ -19,6 +17,7 @@ import org.openplans.tools.tracking.impl.graph.InferredEdge;
 import org.openplans.tools.tracking.impl.graph.paths.InferredPath;
 import org.openplans.tools.tracking.impl.graph.paths.InferredPathEntry;
 import org.openplans.tools.tracking.impl.graph.paths.PathEdge;
+import org.openplans.tools.tracking.impl.statistics.CovarianceFactorCache;
 import org.openplans.tools.tracking.impl.statistics.EdgeTransitionDistributions;
 import org.openplans.tools.tracking.impl.statistics.StandardRoadTrackingFilter;
 import org.openplans.tools.tracking.impl.util.GeoUtils;
@@ -214,10 +213,8 @@ public class Simulation {
     StandardRoadTrackingFilter.convertToGroundBelief(gbelief, edge);
     final Vector gMean = StandardRoadTrackingFilter.getOg().times(
         gbelief.getMean());
-    final Matrix covSqrt = CholeskyDecompositionMTJ.create(
-        DenseMatrixFactoryMTJ.INSTANCE.copyMatrix(obsCov)).getR();
-    final Vector thisStateSample = MultivariateGaussian.sample(
-        gMean, covSqrt, rng);
+    final Vector thisStateSample = CovarianceFactorCache.sample(
+        gMean, obsCov, rng);
     return thisStateSample;
   }
 
@@ -43,6 +43,7 @@ public class VehicleState implements
     private final Vector offRoadStateVariance;
     private final Vector offTransitionProbs;
     private final Vector onTransitionProbs;
+    private final EdgeTransitionDistributions.Prior edgeTransitionPrior;
     private final long seed;
 
     public VehicleStateInitialParameters(Vector obsVariance,
@@ -53,9 +54,19 @@ public class VehicleState implements
       this.offRoadStateVariance = offRoadStateVariance;
       this.offTransitionProbs = offProbs;
       this.onTransitionProbs = onProbs;
+      this.edgeTransitionPrior = new EdgeTransitionDistributions.Prior(
+          onProbs, offProbs);
       this.seed = seed;
     }
 
+    /**
+     * The edge transition prior, shared by every state created with these
+     * parameters.
+     */
+    public EdgeTransitionDistributions.Prior getEdgeTransitionPrior() {
+      return edgeTransitionPrior;
+    }
+
     public Vector getObsVariance() {
       return obsVariance;
     }
@@ -259,8 +270,7 @@ public class VehicleState implements
     this.observation = initialObservation;
     this.graph = graph;
     this.edgeTransitionDist = new EdgeTransitionDistributions(
-        this.graph, parameters.getOnTransitionProbs(),
-        parameters.getOffTransitionProbs());
+        this.graph, parameters.getEdgeTransitionPrior());
     this.distanceFromPreviousState = 0d;
 
     // DEBUG
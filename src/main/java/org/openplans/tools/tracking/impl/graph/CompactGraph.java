@@ -0,0 +1,154 @@
+package org.openplans.tools.tracking.impl.graph;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Immutable, int-indexed topology of the base graph's street edges. <br>
+ * Vertices are numbered 0..n-1 in the order the base graph returns them;
+ * edges keep their base-graph ids. Outgoing and incoming street edges of each
+ * vertex are stored in CSR form, so the transferable-edge queries used during
+ * inference are array scans instead of walks over OTP vertex/edge objects.
+ * Only edges that have an {@link InferredEdge} (i.e. a geometry) are
+ * included.
+ */
+public class CompactGraph {
+
+  private final int vertexCount;
+  private final int[] edgeFrom;
+  private final int[] edgeTo;
+  private final int[] outStart;
+  private final int[] outEdges;
+  private final int[] inStart;
+  private final int[] inEdges;
+
+  private CompactGraph(int vertexCount, int[] edgeFrom, int[] edgeTo,
+    int[] outStart, int[] outEdges, int[] inStart, int[] inEdges) {
+    this.vertexCount = vertexCount;
+    this.edgeFrom = edgeFrom;
+    this.edgeTo = edgeTo;
+    this.outStart = outStart;
+    this.outEdges = outEdges;
+    this.inStart = inStart;
+    this.inEdges = inEdges;
+  }
+
+  /**
+   * Number of edge id slots (the largest edge id plus one).
+   */
+  public int getEdgeCount() {
+    return edgeFrom.length;
+  }
+
+  /**
+   * @return the index of the edge's start vertex, or -1 if the edge isn't in
+   *         this graph.
+   */
+  public int getFromVertex(int edgeId) {
+    return edgeFrom[edgeId];
+  }
+
+  public int getIncomingCount(int vertex) {
+    return inStart[vertex + 1] - inStart[vertex];
+  }
+
+  public int getIncomingEdge(int vertex, int i) {
+    return inEdges[inStart[vertex] + i];
+  }
+
+  public int getOutgoingCount(int vertex) {
+    return outStart[vertex + 1] - outStart[vertex];
+  }
+
+  public int getOutgoingEdge(int vertex, int i) {
+    return outEdges[outStart[vertex] + i];
+  }
+
+  /**
+   * @return the index of the edge's end vertex, or -1 if the edge isn't in
+   *         this graph.
+   */
+  public int getToVertex(int edgeId) {
+    return edgeTo[edgeId];
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  /**
+   * Builds the topology for the edges of baseGraph that are present in
+   * edgeIndex. This is the only place the OTP objects are walked.
+   */
+  public static CompactGraph build(Graph baseGraph,
+    EdgeIndex edgeIndex) {
+    final Map<Vertex, Integer> vertexIds = Maps.newHashMap();
+    for (final Vertex v : baseGraph.getVertices()) {
+      vertexIds.put(v, vertexIds.size());
+    }
+    final int vertexCount = vertexIds.size();
+
+    final int edgeCount = edgeIndex.getEdgeCount();
+    final int[] edgeFrom = new int[edgeCount];
+    final int[] edgeTo = new int[edgeCount];
+    Arrays.fill(edgeFrom, -1);
+    Arrays.fill(edgeTo, -1);
+
+    final int[] outStart = new int[vertexCount + 1];
+    final int[] inStart = new int[vertexCount + 1];
+    final TIntArrayList outEdges = new TIntArrayList();
+    final TIntArrayList inEdges = new TIntArrayList();
+
+    int vertex = 0;
+    for (final Vertex v : baseGraph.getVertices()) {
+      for (final Edge e : v.getOutgoing()) {
+        final int edgeId = getEdgeId(baseGraph, edgeIndex, e);
+        if (edgeId < 0)
+          continue;
+        edgeFrom[edgeId] = vertex;
+        final Integer to = vertexIds.get(e.getToVertex());
+        edgeTo[edgeId] = to == null ? -1 : to;
+      }
+
+      outStart[vertex] = outEdges.size();
+      for (final Edge e : v.getOutgoingStreetEdges()) {
+        final int edgeId = getEdgeId(baseGraph, edgeIndex, e);
+        if (edgeId >= 0)
+          outEdges.add(edgeId);
+      }
+
+      inStart[vertex] = inEdges.size();
+      for (final Edge e : v.getIncoming()) {
+        if (!(e instanceof StreetEdge))
+          continue;
+        final int edgeId = getEdgeId(baseGraph, edgeIndex, e);
+        if (edgeId >= 0)
+          inEdges.add(edgeId);
+      }
+      vertex++;
+    }
+    outStart[vertexCount] = outEdges.size();
+    inStart[vertexCount] = inEdges.size();
+
+    return new CompactGraph(vertexCount, edgeFrom, edgeTo, outStart,
+        outEdges.toArray(), inStart, inEdges.toArray());
+  }
+
+  private static int getEdgeId(Graph baseGraph, EdgeIndex edgeIndex,
+    Edge edge) {
+    final Integer edgeId = baseGraph.getIdForEdge(edge);
+    if (edgeId == null || !edgeIndex.hasEdge(edgeId))
+      return -1;
+    return edgeId;
+  }
+
+}
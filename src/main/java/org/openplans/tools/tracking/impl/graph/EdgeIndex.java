@@ -0,0 +1,521 @@
+package org.openplans.tools.tracking.impl.graph;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import org.openplans.tools.tracking.graph_builder.TurnVertexWithOSMData;
+import org.opentripplanner.routing.edgetype.TurnEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Flat, primitive-array index over the edges of the base graph: edge lengths,
+ * envelopes, packed geometry coordinates, the turn-edge to base-edge id
+ * mapping and a uniform-grid spatial index (in CSR form). <br>
+ * The whole index lives in a single buffer that is written next to the graph
+ * file and memory-mapped on the next startup, so a node doesn't have to
+ * rebuild its spatial indices on every deploy. <br>
+ * Edge ids are the ids handed out by the loaded {@link Graph}, so the file
+ * carries a fingerprint of the graph it was built from and is regenerated
+ * when that no longer matches.
+ */
+public class EdgeIndex {
+
+  public static final String FILE_NAME = "EdgeIndex.bin";
+
+  private static final Logger log = LoggerFactory
+      .getLogger(EdgeIndex.class);
+
+  private static final int MAGIC = 0x45494458;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 64;
+
+  private static final int FINGERPRINT_SAMPLES = 256;
+
+  /*
+   * Upper bound on the number of grid cells, so that very sparse
+   * graphs don't produce a huge, mostly empty grid.
+   */
+  private static final int MAX_CELLS = 1 << 22;
+
+  private final ByteBuffer buffer;
+
+  private final long fingerprint;
+  private final int edgeCount;
+  private final int turnEdgeCount;
+
+  private final double gridMinX;
+  private final double gridMinY;
+  private final double cellSize;
+  private final int cols;
+  private final int rows;
+
+  private final DoubleBuffer lengths;
+  private final DoubleBuffer envelopes;
+  private final DoubleBuffer coords;
+  private final IntBuffer coordOffsets;
+  private final IntBuffer turnToBase;
+  private final IntBuffer cellStarts;
+  private final IntBuffer cellEdges;
+
+  EdgeIndex(ByteBuffer buffer) {
+    Preconditions.checkArgument(buffer.getInt(0) == MAGIC,
+        "not an edge index");
+    Preconditions.checkArgument(buffer.getInt(4) == VERSION,
+        "unsupported edge index version");
+    this.buffer = buffer;
+    this.fingerprint = buffer.getLong(8);
+    this.edgeCount = buffer.getInt(16);
+    this.turnEdgeCount = buffer.getInt(20);
+    final int coordCount = buffer.getInt(24);
+    final int cellEntryCount = buffer.getInt(28);
+    this.cols = buffer.getInt(32);
+    this.rows = buffer.getInt(36);
+    this.gridMinX = buffer.getDouble(40);
+    this.gridMinY = buffer.getDouble(48);
+    this.cellSize = buffer.getDouble(56);
+
+    int offset = HEADER_SIZE;
+    this.lengths = section(buffer, offset, 8 * edgeCount)
+        .asDoubleBuffer();
+    offset += 8 * edgeCount;
+    this.envelopes = section(buffer, offset, 32 * edgeCount)
+        .asDoubleBuffer();
+    offset += 32 * edgeCount;
+    this.coords = section(buffer, offset, 16 * coordCount)
+        .asDoubleBuffer();
+    offset += 16 * coordCount;
+    this.coordOffsets = section(buffer, offset, 4 * (edgeCount + 1))
+        .asIntBuffer();
+    offset += align(4 * (edgeCount + 1));
+    this.turnToBase = section(buffer, offset, 4 * turnEdgeCount)
+        .asIntBuffer();
+    offset += align(4 * turnEdgeCount);
+    this.cellStarts = section(buffer, offset, 4 * (cols * rows + 1))
+        .asIntBuffer();
+    offset += align(4 * (cols * rows + 1));
+    this.cellEdges = section(buffer, offset, 4 * cellEntryCount)
+        .asIntBuffer();
+  }
+
+  /**
+   * Number of edge id slots, i.e. the largest base-graph edge id plus one.
+   */
+  public int getEdgeCount() {
+    return edgeCount;
+  }
+
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * @return the base-graph edge id for the given turn-graph edge id, or -1
+   *         when the turn edge has no base edge.
+   */
+  public int getBaseEdgeId(int turnEdgeId) {
+    if (turnEdgeId < 0 || turnEdgeId >= turnEdgeCount)
+      return -1;
+    return turnToBase.get(turnEdgeId);
+  }
+
+  public int getCoordinateCount(int edgeId) {
+    return coordOffsets.get(edgeId + 1) - coordOffsets.get(edgeId);
+  }
+
+  /**
+   * @return whether the base graph had a street geometry for this id.
+   */
+  public boolean hasEdge(int edgeId) {
+    return edgeId >= 0 && edgeId < edgeCount
+        && !Double.isNaN(lengths.get(edgeId));
+  }
+
+  /**
+   * Length of the edge geometry, in projected units, or NaN for ids that
+   * have no geometry.
+   */
+  public double getLength(int edgeId) {
+    return lengths.get(edgeId);
+  }
+
+  public double getX(int edgeId, int coordIndex) {
+    return coords.get(2 * (coordOffsets.get(edgeId) + coordIndex));
+  }
+
+  public double getY(int edgeId, int coordIndex) {
+    return coords
+        .get(2 * (coordOffsets.get(edgeId) + coordIndex) + 1);
+  }
+
+  /**
+   * Adds the ids of all edges whose envelopes intersect the given envelope
+   * to result. Each id is reported once, and no objects are allocated
+   * beyond growing result.
+   */
+  public void query(double minX, double minY, double maxX,
+    double maxY, TIntArrayList result) {
+    final int qc0 = clamp(cellX(minX), cols);
+    final int qc1 = clamp(cellX(maxX), cols);
+    final int qr0 = clamp(cellY(minY), rows);
+    final int qr1 = clamp(cellY(maxY), rows);
+    for (int r = qr0; r <= qr1; r++) {
+      for (int c = qc0; c <= qc1; c++) {
+        final int cell = r * cols + c;
+        final int end = cellStarts.get(cell + 1);
+        for (int i = cellStarts.get(cell); i < end; i++) {
+          final int edgeId = cellEdges.get(i);
+          final int env = 4 * edgeId;
+          final double eMinX = envelopes.get(env);
+          final double eMinY = envelopes.get(env + 1);
+          final double eMaxX = envelopes.get(env + 2);
+          final double eMaxY = envelopes.get(env + 3);
+          if (eMinX > maxX || eMaxX < minX || eMinY > maxY
+              || eMaxY < minY || Double.isNaN(eMinX))
+            continue;
+          /*
+           * An edge is stored in every cell its envelope covers, so
+           * only report it from the first cell shared by both envelopes.
+           */
+          final int firstCol = Math.max(
+              qc0, clamp(cellX(eMinX), cols));
+          final int firstRow = Math.max(
+              qr0, clamp(cellY(eMinY), rows));
+          if (firstCol == c && firstRow == r)
+            result.add(edgeId);
+        }
+      }
+    }
+  }
+
+  public void query(Envelope env, TIntArrayList result) {
+    query(env.getMinX(), env.getMinY(), env.getMaxX(),
+        env.getMaxY(), result);
+  }
+
+  /**
+   * Writes the index to the given file, going through a temporary file so
+   * that readers never see a partial index.
+   */
+  public void write(File file) throws IOException {
+    final File tmp = new File(file.getPath() + ".tmp");
+    final FileOutputStream out = new FileOutputStream(tmp);
+    try {
+      final FileChannel channel = out.getChannel();
+      final ByteBuffer data = buffer.duplicate();
+      data.clear();
+      while (data.hasRemaining()) {
+        channel.write(data);
+      }
+    } finally {
+      out.close();
+    }
+    if (file.exists() && !file.delete())
+      throw new IOException("couldn't replace " + file);
+    if (!tmp.renameTo(file))
+      throw new IOException("couldn't rename " + tmp + " to " + file);
+  }
+
+  private int cellX(double x) {
+    return (int) Math.floor((x - gridMinX) / cellSize);
+  }
+
+  private int cellY(double y) {
+    return (int) Math.floor((y - gridMinY) / cellSize);
+  }
+
+  /**
+   * Builds the index for the given base graph and its turn graph. The result
+   * is held on the heap until it's written out.
+   */
+  public static EdgeIndex build(Graph baseGraph, Graph turnGraph) {
+    final int edgeCount = maxEdgeId(baseGraph) + 1;
+    final int turnEdgeCount = maxEdgeId(turnGraph) + 1;
+
+    final Edge[] edges = new Edge[edgeCount];
+    int coordCount = 0;
+    final Envelope extent = new Envelope();
+    for (final Vertex v : baseGraph.getVertices()) {
+      for (final Edge e : v.getOutgoing()) {
+        final Integer id = baseGraph.getIdForEdge(e);
+        if (id == null || e.getGeometry() == null)
+          continue;
+        edges[id] = e;
+        coordCount += e.getGeometry().getNumPoints();
+        extent.expandToInclude(e.getGeometry().getEnvelopeInternal());
+      }
+    }
+
+    final double width = Math.max(extent.getWidth(), 1d);
+    final double height = Math.max(extent.getHeight(), 1d);
+    double cellSize = Math.max(
+        Math.sqrt(width * height / Math.max(edgeCount, 1)), 1d);
+    while ((long) (width / cellSize + 1)
+        * (long) (height / cellSize + 1) > MAX_CELLS) {
+      cellSize *= 2d;
+    }
+    final int cols = (int) (width / cellSize) + 1;
+    final int rows = (int) (height / cellSize) + 1;
+    final double gridMinX = extent.isNull() ? 0d : extent.getMinX();
+    final double gridMinY = extent.isNull() ? 0d : extent.getMinY();
+
+    /*
+     * Count the entries per cell, then fill them (CSR layout).
+     */
+    final int[] cellStarts = new int[cols * rows + 1];
+    for (final Edge e : edges) {
+      if (e == null)
+        continue;
+      final Envelope env = e.getGeometry().getEnvelopeInternal();
+      final int c0 = clamp(
+          (int) Math.floor((env.getMinX() - gridMinX) / cellSize), cols);
+      final int c1 = clamp(
+          (int) Math.floor((env.getMaxX() - gridMinX) / cellSize), cols);
+      final int r0 = clamp(
+          (int) Math.floor((env.getMinY() - gridMinY) / cellSize), rows);
+      final int r1 = clamp(
+          (int) Math.floor((env.getMaxY() - gridMinY) / cellSize), rows);
+      for (int r = r0; r <= r1; r++) {
+        for (int c = c0; c <= c1; c++) {
+          cellStarts[r * cols + c + 1]++;
+        }
+      }
+    }
+    for (int i = 1; i < cellStarts.length; i++) {
+      cellStarts[i] += cellStarts[i - 1];
+    }
+    final int cellEntryCount = cellStarts[cellStarts.length - 1];
+
+    final int size = HEADER_SIZE + 8 * edgeCount + 32 * edgeCount
+        + 16 * coordCount + align(4 * (edgeCount + 1))
+        + align(4 * turnEdgeCount) + align(4 * (cols * rows + 1))
+        + 4 * cellEntryCount;
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putLong(8, fingerprint(baseGraph, turnGraph));
+    buffer.putInt(16, edgeCount);
+    buffer.putInt(20, turnEdgeCount);
+    buffer.putInt(24, coordCount);
+    buffer.putInt(28, cellEntryCount);
+    buffer.putInt(32, cols);
+    buffer.putInt(36, rows);
+    buffer.putDouble(40, gridMinX);
+    buffer.putDouble(48, gridMinY);
+    buffer.putDouble(56, cellSize);
+
+    int offset = HEADER_SIZE;
+    final DoubleBuffer lengths = section(buffer, offset, 8 * edgeCount)
+        .asDoubleBuffer();
+    offset += 8 * edgeCount;
+    final DoubleBuffer envelopes = section(
+        buffer, offset, 32 * edgeCount).asDoubleBuffer();
+    offset += 32 * edgeCount;
+    final DoubleBuffer coords = section(buffer, offset, 16 * coordCount)
+        .asDoubleBuffer();
+    offset += 16 * coordCount;
+    final IntBuffer coordOffsets = section(
+        buffer, offset, 4 * (edgeCount + 1)).asIntBuffer();
+    offset += align(4 * (edgeCount + 1));
+    final IntBuffer turnToBase = section(
+        buffer, offset, 4 * turnEdgeCount).asIntBuffer();
+    offset += align(4 * turnEdgeCount);
+    final IntBuffer cellStartsBuffer = section(
+        buffer, offset, 4 * (cols * rows + 1)).asIntBuffer();
+    offset += align(4 * (cols * rows + 1));
+    final IntBuffer cellEdges = section(
+        buffer, offset, 4 * cellEntryCount).asIntBuffer();
+
+    int coordOffset = 0;
+    for (int id = 0; id < edgeCount; id++) {
+      coordOffsets.put(id, coordOffset);
+      final Edge e = edges[id];
+      if (e == null) {
+        lengths.put(id, Double.NaN);
+        for (int i = 0; i < 4; i++) {
+          envelopes.put(4 * id + i, Double.NaN);
+        }
+        continue;
+      }
+      final Geometry geometry = e.getGeometry();
+      lengths.put(id, geometry.getLength());
+      final Envelope env = geometry.getEnvelopeInternal();
+      envelopes.put(4 * id, env.getMinX());
+      envelopes.put(4 * id + 1, env.getMinY());
+      envelopes.put(4 * id + 2, env.getMaxX());
+      envelopes.put(4 * id + 3, env.getMaxY());
+      for (final Coordinate coord : geometry.getCoordinates()) {
+        coords.put(2 * coordOffset, coord.x);
+        coords.put(2 * coordOffset + 1, coord.y);
+        coordOffset++;
+      }
+    }
+    coordOffsets.put(edgeCount, coordOffset);
+
+    for (int id = 0; id < turnEdgeCount; id++) {
+      turnToBase.put(id, -1);
+    }
+    for (final Vertex v : turnGraph.getVertices()) {
+      for (final Edge e : v.getOutgoing()) {
+        final Integer turnId = turnGraph.getIdForEdge(e);
+        if (turnId == null || !(e instanceof TurnEdge))
+          continue;
+        final Edge base = ((TurnVertexWithOSMData) e.getFromVertex())
+            .getOriginal();
+        final Integer baseId = baseGraph.getIdForEdge(base);
+        if (baseId != null)
+          turnToBase.put(turnId, baseId);
+      }
+    }
+
+    final int[] fill = new int[cols * rows];
+    System.arraycopy(cellStarts, 0, fill, 0, fill.length);
+    for (int id = 0; id < edgeCount; id++) {
+      if (edges[id] == null)
+        continue;
+      final int env = 4 * id;
+      final int c0 = clamp(
+          (int) Math.floor((envelopes.get(env) - gridMinX) / cellSize),
+          cols);
+      final int c1 = clamp(
+          (int) Math.floor((envelopes.get(env + 2) - gridMinX)
+              / cellSize), cols);
+      final int r0 = clamp(
+          (int) Math.floor((envelopes.get(env + 1) - gridMinY)
+              / cellSize), rows);
+      final int r1 = clamp(
+          (int) Math.floor((envelopes.get(env + 3) - gridMinY)
+              / cellSize), rows);
+      for (int r = r0; r <= r1; r++) {
+        for (int c = c0; c <= c1; c++) {
+          cellEdges.put(fill[r * cols + c]++, id);
+        }
+      }
+    }
+    for (int i = 0; i < cellStarts.length; i++) {
+      cellStartsBuffer.put(i, cellStarts[i]);
+    }
+
+    return new EdgeIndex(buffer);
+  }
+
+  /**
+   * Cheap fingerprint of the loaded graphs: edge/vertex counts and a sample
+   * of edge geometries, looked up by id. Any change in id assignment or
+   * geometry for the sampled edges changes the fingerprint.
+   */
+  public static long fingerprint(Graph baseGraph, Graph turnGraph) {
+    long hash = 17;
+    hash = 31 * hash + baseGraph.getVertices().size();
+    hash = 31 * hash + turnGraph.getVertices().size();
+    hash = 31 * hash + maxEdgeId(turnGraph);
+    final int maxId = maxEdgeId(baseGraph);
+    hash = 31 * hash + maxId;
+    final int step = Math.max(1, (maxId + 1) / FINGERPRINT_SAMPLES);
+    for (int id = 0; id <= maxId; id += step) {
+      final Edge e = baseGraph.getEdgeById(id);
+      if (e == null || e.getGeometry() == null) {
+        hash = 31 * hash - 1;
+        continue;
+      }
+      final Coordinate[] coords = e.getGeometry().getCoordinates();
+      final Coordinate first = coords[0];
+      final Coordinate last = coords[coords.length - 1];
+      hash = 31 * hash + coords.length;
+      hash = 31 * hash + Double.doubleToLongBits(first.x);
+      hash = 31 * hash + Double.doubleToLongBits(first.y);
+      hash = 31 * hash + Double.doubleToLongBits(last.x);
+      hash = 31 * hash + Double.doubleToLongBits(last.y);
+    }
+    return hash;
+  }
+
+  /**
+   * Returns the index stored in file when it matches the given graphs.
+   * Otherwise the index is rebuilt and, if possible, written to file for the
+   * next startup.
+   */
+  public static EdgeIndex load(File file, Graph baseGraph,
+    Graph turnGraph) {
+    final long fingerprint = fingerprint(baseGraph, turnGraph);
+    if (file.exists()) {
+      try {
+        final EdgeIndex index = map(file);
+        if (index.getFingerprint() == fingerprint) {
+          log.info("Mapped edge index " + file);
+          return index;
+        }
+        log.info("Edge index " + file + " is stale; rebuilding");
+      } catch (final IOException e) {
+        log.warn("Couldn't map edge index " + file + "; rebuilding", e);
+      } catch (final IllegalArgumentException e) {
+        log.warn("Couldn't read edge index " + file + "; rebuilding", e);
+      }
+    }
+
+    final EdgeIndex index = build(baseGraph, turnGraph);
+    try {
+      index.write(file);
+      log.info("Wrote edge index " + file);
+    } catch (final IOException e) {
+      log.warn("Couldn't write edge index " + file, e);
+    }
+    return index;
+  }
+
+  public static EdgeIndex map(File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      return new EdgeIndex(channel.map(
+          FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static int align(int size) {
+    return (size + 7) & ~7;
+  }
+
+  private static int clamp(int cell, int count) {
+    return cell < 0 ? 0 : (cell >= count ? count - 1 : cell);
+  }
+
+  private static int maxEdgeId(Graph graph) {
+    int maxId = -1;
+    for (final Vertex v : graph.getVertices()) {
+      for (final Edge e : v.getOutgoing()) {
+        final Integer id = graph.getIdForEdge(e);
+        if (id != null && id > maxId)
+          maxId = id;
+      }
+    }
+    return maxId;
+  }
+
+  private static ByteBuffer section(ByteBuffer buffer, int offset,
+    int length) {
+    final ByteBuffer dup = buffer.duplicate();
+    dup.position(offset);
+    dup.limit(offset + length);
+    return dup.slice();
+  }
+
+}
@@ -2,7 +2,6 @@ package org.openplans.tools.tracking.impl.graph;
 
 import gov.sandia.cognition.math.matrix.Vector;
 import gov.sandia.cognition.math.matrix.VectorFactory;
-import gov.sandia.cognition.statistics.bayesian.conjugate.UnivariateGaussianMeanVarianceBayesianEstimator;
 import gov.sandia.cognition.statistics.distribution.NormalInverseGammaDistribution;
 
 import java.util.List;
@@ -29,18 +28,27 @@ public class InferredEdge implements Comparable<InferredEdge> {
   private final Integer edgeId;
   private final Vertex startVertex;
   private final Vertex endVertex;
-  private final Vector endPoint;
-  private final Vector startPoint;
-  private final NormalInverseGammaDistribution velocityPrecisionDist;
-  private final UnivariateGaussianMeanVarianceBayesianEstimator velocityEstimator;
+
+  /*
+   * Vertex indices in the graph's compact topology.
+   */
+  private final int startVertexIndex;
+  private final int endVertexIndex;
+
   private final OtpGraph graph;
 
   private final Edge edge;
 
   private final Geometry geometry;
-  private final LocationIndexedLine locationIndexedLine;
-  private final LengthIndexedLine lengthIndexedLine;
-  private final LengthLocationMap lengthLocationMap;
+
+  /*
+   * Most edges are only ever touched by a search, so the linear-referencing
+   * helpers are built on first use.
+   */
+  private volatile LocationIndexedLine locationIndexedLine;
+  private volatile LengthIndexedLine lengthIndexedLine;
+  private volatile LengthLocationMap lengthLocationMap;
+  private volatile SegmentTable segmentTable;
 
   /*
    * This is the empty edge, which stands for free movement
@@ -49,20 +57,15 @@ public class InferredEdge implements Comparable<InferredEdge> {
 
   private InferredEdge() {
     this.edgeId = null;
-    this.endPoint = null;
-    this.startPoint = null;
-    this.velocityEstimator = null;
-    this.velocityPrecisionDist = null;
     this.startVertex = null;
     this.endVertex = null;
+    this.startVertexIndex = -1;
+    this.endVertexIndex = -1;
     this.graph = null;
 
     this.edge = null;
 
     this.geometry = null;
-    this.locationIndexedLine = null;
-    this.lengthIndexedLine = null;
-    this.lengthLocationMap = null;
   }
 
   public InferredEdge(@Nonnull Edge edge, @Nonnull Integer edgeId,
@@ -83,32 +86,11 @@ public class InferredEdge implements Comparable<InferredEdge> {
      */
     this.geometry = edge.getGeometry();
 
-    this.locationIndexedLine = new LocationIndexedLine(geometry);
-    this.lengthIndexedLine = new LengthIndexedLine(geometry);
-    this.lengthLocationMap = new LengthLocationMap(geometry);
-
     this.startVertex = edge.getFromVertex();
     this.endVertex = edge.getToVertex();
-
-    final Coordinate startPointCoord = this.locationIndexedLine
-        .extractPoint(this.locationIndexedLine.getStartIndex());
-
-    this.startPoint = VectorFactory.getDefault().createVector2D(
-        startPointCoord.x, startPointCoord.y);
-
-    final Coordinate endPointCoord = this.locationIndexedLine
-        .extractPoint(this.locationIndexedLine.getEndIndex());
-    this.endPoint = VectorFactory.getDefault().createVector2D(
-        endPointCoord.x, endPointCoord.y);
-
-    this.velocityPrecisionDist =
-    // ~4.4 m/s, std. dev ~ 30 m/s, Gamma with exp. value = 30 m/s
-    // TODO perhaps variance of velocity should be in m/s^2. yeah...
-    new NormalInverseGammaDistribution(
-        4.4d, 1d / Math.pow(30d, 2d), 1d / Math.pow(30d, 2d) + 1d,
-        Math.pow(30d, 2d));
-    this.velocityEstimator = new UnivariateGaussianMeanVarianceBayesianEstimator(
-        velocityPrecisionDist);
+    this.startVertexIndex = graph.getCompactGraph().getFromVertex(
+        edgeId);
+    this.endVertexIndex = graph.getCompactGraph().getToVertex(edgeId);
   }
 
   @Override
@@ -134,18 +116,10 @@ public class InferredEdge implements Comparable<InferredEdge> {
       return false;
     }
     final InferredEdge other = (InferredEdge) obj;
-    if (endVertex == null) {
-      if (other.endVertex != null) {
-        return false;
-      }
-    } else if (!endVertex.equals(other.endVertex)) {
+    if (endVertexIndex != other.endVertexIndex) {
       return false;
     }
-    if (startVertex == null) {
-      if (other.startVertex != null) {
-        return false;
-      }
-    } else if (!startVertex.equals(other.startVertex)) {
+    if (startVertexIndex != other.startVertexIndex) {
       return false;
     }
     return true;
@@ -160,10 +134,9 @@ public class InferredEdge implements Comparable<InferredEdge> {
       return null;
     final Coordinate revObsPoint = new Coordinate(
         obsPoint.getElement(1), obsPoint.getElement(0));
-    final LinearLocation here = locationIndexedLine
-        .project(revObsPoint);
-    final Coordinate pointOnLine = locationIndexedLine
-        .extractPoint(here);
+    final LocationIndexedLine line = getLocationIndexedLine();
+    final LinearLocation here = line.project(revObsPoint);
+    final Coordinate pointOnLine = line.extractPoint(here);
     final Coordinate revOnLine = new Coordinate(
         pointOnLine.y, pointOnLine.x);
     return revOnLine;
@@ -178,13 +151,20 @@ public class InferredEdge implements Comparable<InferredEdge> {
   }
 
   public Vector getEndPoint() {
-    return this.endPoint;
+    final Coordinate[] coords = geometry.getCoordinates();
+    final Coordinate endPointCoord = coords[coords.length - 1];
+    return VectorFactory.getDefault().createVector2D(
+        endPointCoord.x, endPointCoord.y);
   }
 
   public Vertex getEndVertex() {
     return endVertex;
   }
 
+  public int getEndVertexIndex() {
+    return endVertexIndex;
+  }
+
   public Geometry getGeometry() {
     return geometry;
   }
@@ -202,11 +182,13 @@ public class InferredEdge implements Comparable<InferredEdge> {
    */
   public List<InferredEdge> getIncomingTransferableEdges() {
 
-    final List<InferredEdge> result = Lists.newArrayList();
-    for (final Edge edge : OtpGraph
-        .filterForStreetEdges(this.startVertex.getIncoming())) {
-      if (graph.getBaseGraph().getIdForEdge(edge) != null)
-        result.add(graph.getInferredEdge(edge));
+    final CompactGraph topology = graph.getCompactGraph();
+    final int count = topology.getIncomingCount(startVertexIndex);
+    final List<InferredEdge> result = Lists
+        .newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+      result.add(graph.getInferredEdge(topology.getIncomingEdge(
+          startVertexIndex, i)));
     }
 
     return result;
@@ -216,19 +198,34 @@ public class InferredEdge implements Comparable<InferredEdge> {
     if (edge == null) {
       return 0;
     }
-    return geometry.getLength();
+    return graph.getEdgeIndex().getLength(edgeId);
   }
 
   public LengthIndexedLine getLengthIndexedLine() {
-    return lengthIndexedLine;
+    LengthIndexedLine line = lengthIndexedLine;
+    if (line == null) {
+      line = new LengthIndexedLine(geometry);
+      lengthIndexedLine = line;
+    }
+    return line;
   }
 
   public LengthLocationMap getLengthLocationMap() {
-    return lengthLocationMap;
+    LengthLocationMap map = lengthLocationMap;
+    if (map == null) {
+      map = new LengthLocationMap(geometry);
+      lengthLocationMap = map;
+    }
+    return map;
   }
 
   public LocationIndexedLine getLocationIndexedLine() {
-    return locationIndexedLine;
+    LocationIndexedLine line = locationIndexedLine;
+    if (line == null) {
+      line = new LocationIndexedLine(geometry);
+      locationIndexedLine = line;
+    }
+    return line;
   }
 
   /**
@@ -239,9 +236,13 @@ public class InferredEdge implements Comparable<InferredEdge> {
    * @return
    */
   public List<InferredEdge> getOutgoingTransferableEdges() {
-    final List<InferredEdge> result = Lists.newArrayList();
-    for (final Edge edge : this.endVertex.getOutgoingStreetEdges()) {
-      result.add(graph.getInferredEdge(edge));
+    final CompactGraph topology = graph.getCompactGraph();
+    final int count = topology.getOutgoingCount(endVertexIndex);
+    final List<InferredEdge> result = Lists
+        .newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+      result.add(graph.getInferredEdge(topology.getOutgoingEdge(
+          endVertexIndex, i)));
     }
 
     return result;
@@ -257,37 +258,57 @@ public class InferredEdge implements Comparable<InferredEdge> {
   public Vector getPointOnEdge(Coordinate obsPoint) {
     if (this == InferredEdge.emptyEdge)
       return null;
-    final LinearLocation here = locationIndexedLine.project(obsPoint);
-    final Coordinate pointOnLine = locationIndexedLine
-        .extractPoint(here);
+    final LocationIndexedLine line = getLocationIndexedLine();
+    final LinearLocation here = line.project(obsPoint);
+    final Coordinate pointOnLine = line.extractPoint(here);
     return VectorFactory.getDefault().createVector2D(
         pointOnLine.x, pointOnLine.y);
   }
 
+  public SegmentTable getSegmentTable() {
+    SegmentTable table = segmentTable;
+    if (table == null) {
+      table = new SegmentTable(geometry);
+      segmentTable = table;
+    }
+    return table;
+  }
+
   public Vector getStartPoint() {
-    return startPoint;
+    final Coordinate startPointCoord = geometry.getCoordinates()[0];
+    return VectorFactory.getDefault().createVector2D(
+        startPointCoord.x, startPointCoord.y);
   }
 
   public Vertex getStartVertex() {
     return startVertex;
   }
 
-  public UnivariateGaussianMeanVarianceBayesianEstimator getVelocityEstimator() {
-    return velocityEstimator;
+  public int getStartVertexIndex() {
+    return startVertexIndex;
+  }
+
+  /**
+   * The posterior mean of this edge's velocity, from the graph's shared
+   * velocity statistics.
+   */
+  public double getVelocityMean() {
+    return graph.getVelocityStatistics().getMean(edgeId);
   }
 
+  /**
+   * A copy of this edge's current velocity posterior.
+   */
   public NormalInverseGammaDistribution getVelocityPrecisionDist() {
-    return velocityPrecisionDist;
+    return graph.getVelocityStatistics().getDistribution(edgeId);
   }
 
   @Override
   public int hashCode() {
     final int prime = 31;
     int result = 1;
-    result = prime * result
-        + ((endVertex == null) ? 0 : endVertex.hashCode());
-    result = prime * result
-        + ((startVertex == null) ? 0 : startVertex.hashCode());
+    result = prime * result + endVertexIndex;
+    result = prime * result + startVertexIndex;
     return result;
   }
 
@@ -295,6 +316,13 @@ public class InferredEdge implements Comparable<InferredEdge> {
     return this == emptyEdge;
   }
 
+  /**
+   * Updates this edge's velocity posterior with an observed speed.
+   */
+  public void updateVelocity(double velocity) {
+    graph.getVelocityStatistics().update(edgeId, velocity);
+  }
+
   @Override
   public String toString() {
     if (this == emptyEdge)
@@ -1,18 +1,18 @@
 package org.openplans.tools.tracking.impl.graph;
 
-import static org.openplans.tools.tracking.impl.util.GeoUtils.getCRSTransform;
-
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.geotools.geometry.jts.JTS;
-import org.opengis.referencing.operation.MathTransform;
-import org.opengis.referencing.operation.NoninvertibleTransformException;
-import org.opengis.referencing.operation.TransformException;
+import org.openplans.tools.tracking.impl.util.GeoUtils;
 import org.opentripplanner.graph_builder.services.GraphBuilder;
 import org.opentripplanner.routing.edgetype.PlainStreetEdge;
 import org.opentripplanner.routing.graph.AbstractVertex;
@@ -20,17 +20,59 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 
+import com.google.common.collect.Lists;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
 import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Reprojects the coordinates of the original graph to a flat coordinate system.
+ * Coordinates are packed into one array and projected in parallel chunks with
+ * the closed-form projection in {@link GeoUtils}.
  * 
  * @author novalis
  * 
  */
 public class ReprojectCoords implements GraphBuilder {
 
+  /**
+   * Overwrites a geometry's coordinates, in order, from packed (x, y) pairs
+   * starting at a given array index.
+   */
+  private static class PackedCoordinateFilter implements
+      CoordinateSequenceFilter {
+
+    private final double[] points;
+    private int index;
+
+    PackedCoordinateFilter(double[] points, int index) {
+      this.points = points;
+      this.index = index;
+    }
+
+    @Override
+    public void filter(CoordinateSequence seq, int i) {
+      seq.setOrdinate(i, CoordinateSequence.X, points[index++]);
+      seq.setOrdinate(i, CoordinateSequence.Y, points[index++]);
+    }
+
+    @Override
+    public boolean isDone() {
+      return false;
+    }
+
+    @Override
+    public boolean isGeometryChanged() {
+      return true;
+    }
+  }
+
+  /*
+   * Points per reprojection task.
+   */
+  private static final int CHUNK_SIZE = 1 << 16;
+
   @Override
   public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
     Field xfield;
@@ -53,35 +95,64 @@ public class ReprojectCoords implements GraphBuilder {
     graph = graph.getService(BaseGraph.class).getBaseGraph();
     graph
         .setVertexComparatorFactory(new SimpleVertexComparatorFactory());
-    final MathTransform transform = getCRSTransform();
-    try {
-      for (final Vertex v : graph.getVertices()) {
-        final AbstractVertex abv = ((AbstractVertex) v);
-        final Coordinate converted = new Coordinate();
-
-        // reversed coord
-        JTS.transform(abv.getCoordinate(), converted, transform);
-        xfield.set(abv, converted.x);
-        yfield.set(abv, converted.y);
-        final ArrayList<Edge> toRemove = new ArrayList<Edge>();
-        for (final Edge e : v.getOutgoing()) {
-          final Geometry orig = e.getGeometry();
-          if (orig == null) {
-            toRemove.add(e);
-            continue;
-          }
-          final Geometry geom = JTS.transform(orig, transform);
-          geomfield.set(e, geom);
-        }
-        for (final Edge e : toRemove) {
-          v.removeOutgoing(e);
-          e.getToVertex().removeIncoming(e);
+
+    /*
+     * Drop edges without geometry, and collect everything to reproject.
+     */
+    final List<AbstractVertex> vertices = Lists.newArrayList();
+    final List<Edge> edges = Lists.newArrayList();
+    int numPoints = 0;
+    for (final Vertex v : graph.getVertices()) {
+      vertices.add((AbstractVertex) v);
+      numPoints++;
+      final ArrayList<Edge> toRemove = new ArrayList<Edge>();
+      for (final Edge e : v.getOutgoing()) {
+        final Geometry orig = e.getGeometry();
+        if (orig == null) {
+          toRemove.add(e);
+          continue;
         }
+        edges.add(e);
+        numPoints += orig.getNumPoints();
+      }
+      for (final Edge e : toRemove) {
+        v.removeOutgoing(e);
+        e.getToVertex().removeIncoming(e);
+      }
+    }
+
+    /*
+     * Pack all coordinates as (lon, lat) pairs: vertices first, then each
+     * edge's geometry in order.
+     */
+    final double[] points = new double[2 * numPoints];
+    int index = 0;
+    for (final AbstractVertex v : vertices) {
+      final Coordinate c = v.getCoordinate();
+      points[index++] = c.x;
+      points[index++] = c.y;
+    }
+    for (final Edge e : edges) {
+      for (final Coordinate c : e.getGeometry().getCoordinates()) {
+        points[index++] = c.x;
+        points[index++] = c.y;
+      }
+    }
+
+    reproject(points, numPoints);
+
+    try {
+      index = 0;
+      for (final AbstractVertex v : vertices) {
+        xfield.set(v, points[index++]);
+        yfield.set(v, points[index++]);
+      }
+      for (final Edge e : edges) {
+        final Geometry geom = (Geometry) e.getGeometry().clone();
+        geom.apply(new PackedCoordinateFilter(points, index));
+        index += 2 * geom.getNumPoints();
+        geomfield.set(e, geom);
       }
-    } catch (final NoninvertibleTransformException e) {
-      throw new RuntimeException(e);
-    } catch (final TransformException e) {
-      throw new RuntimeException(e);
     } catch (final IllegalArgumentException e) {
       throw new RuntimeException(e);
     } catch (final IllegalAccessException e) {
@@ -104,4 +175,36 @@ public class ReprojectCoords implements GraphBuilder {
     return Arrays.asList("reprojected");
   }
 
+  /**
+   * Projects the packed (lon, lat) pairs in place, in parallel chunks.
+   */
+  private static void reproject(final double[] points, int numPoints) {
+    final int numThreads = Runtime.getRuntime().availableProcessors();
+    final ExecutorService executor = Executors
+        .newFixedThreadPool(numThreads);
+    try {
+      final List<Callable<Object>> tasks = Lists.newArrayList();
+      for (int offset = 0; offset < numPoints; offset += CHUNK_SIZE) {
+        final int start = offset;
+        final int count = Math.min(CHUNK_SIZE, numPoints - offset);
+        tasks.add(Executors.callable(new Runnable() {
+          @Override
+          public void run() {
+            GeoUtils.getProjection().project(points, points, start, count);
+          }
+        }));
+      }
+      for (final Future<Object> result : executor.invokeAll(tasks)) {
+        result.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (final ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
 }
@@ -0,0 +1,180 @@
+package org.openplans.tools.tracking.impl.graph;
+
+import com.google.common.base.Preconditions;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Precomputed line segments of a (multi-)line geometry: start and end points,
+ * unit directions and the length along the geometry to the start of each
+ * segment. <br>
+ * Zero-length segments are dropped, and segments never span two components
+ * of a multi-line, so lengths agree with JTS' linear referencing. Lookups by
+ * distance are binary searches and projections don't allocate. <br>
+ * A geometry with no length, e.g. a zero-length edge, gets a single
+ * zero-length segment at its first point, so lookups still land on its
+ * location as they did with JTS; its direction is arbitrary.
+ */
+public class SegmentTable {
+
+  private final double[] startX;
+  private final double[] startY;
+  private final double[] endX;
+  private final double[] endY;
+  private final double[] dirX;
+  private final double[] dirY;
+  private final double[] segmentLength;
+  private final double[] distToStart;
+  private final int segmentCount;
+  private final double length;
+
+  public SegmentTable(Geometry geometry) {
+    Preconditions.checkArgument(!geometry.isEmpty());
+    final int maxSegments = Math.max(geometry.getNumPoints() - 1, 1);
+    startX = new double[maxSegments];
+    startY = new double[maxSegments];
+    endX = new double[maxSegments];
+    endY = new double[maxSegments];
+    dirX = new double[maxSegments];
+    dirY = new double[maxSegments];
+    segmentLength = new double[maxSegments];
+    distToStart = new double[maxSegments];
+
+    int count = 0;
+    double totalLength = 0d;
+    for (int g = 0; g < geometry.getNumGeometries(); g++) {
+      final Coordinate[] coords = geometry.getGeometryN(g)
+          .getCoordinates();
+      for (int i = 0; i < coords.length - 1; i++) {
+        final double dx = coords[i + 1].x - coords[i].x;
+        final double dy = coords[i + 1].y - coords[i].y;
+        final double len = Math.sqrt(dx * dx + dy * dy);
+        if (len == 0d)
+          continue;
+        startX[count] = coords[i].x;
+        startY[count] = coords[i].y;
+        endX[count] = coords[i + 1].x;
+        endY[count] = coords[i + 1].y;
+        dirX[count] = dx / len;
+        dirY[count] = dy / len;
+        segmentLength[count] = len;
+        distToStart[count] = totalLength;
+        totalLength += len;
+        count++;
+      }
+    }
+
+    if (count == 0) {
+      final Coordinate point = geometry.getCoordinate();
+      startX[0] = point.x;
+      startY[0] = point.y;
+      endX[0] = point.x;
+      endY[0] = point.y;
+      dirX[0] = 1d;
+      dirY[0] = 0d;
+      count = 1;
+    }
+
+    this.segmentCount = count;
+    this.length = totalLength;
+  }
+
+  /**
+   * Distance along the geometry of the point on segment closest to (x, y).
+   */
+  public double distanceAlong(int segment, double x, double y) {
+    return distToStart[segment] + projectionFactor(segment, x, y);
+  }
+
+  /**
+   * Finds the segment covering the given distance along the geometry, i.e.
+   * the last segment starting at or before it. Distances past either end
+   * map to the first/last segment.
+   */
+  public int findSegment(double distance) {
+    int lo = 0;
+    int hi = segmentCount - 1;
+    while (lo < hi) {
+      final int mid = (lo + hi + 1) >>> 1;
+      if (distToStart[mid] <= distance)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    return lo;
+  }
+
+  public double getDirectionX(int segment) {
+    return dirX[segment];
+  }
+
+  public double getDirectionY(int segment) {
+    return dirY[segment];
+  }
+
+  public double getDistanceToStart(int segment) {
+    return distToStart[segment];
+  }
+
+  public double getEndX(int segment) {
+    return endX[segment];
+  }
+
+  public double getEndY(int segment) {
+    return endY[segment];
+  }
+
+  public double getLength() {
+    return length;
+  }
+
+  public int getSegmentCount() {
+    return segmentCount;
+  }
+
+  public double getSegmentLength(int segment) {
+    return segmentLength[segment];
+  }
+
+  public double getStartX(int segment) {
+    return startX[segment];
+  }
+
+  public double getStartY(int segment) {
+    return startY[segment];
+  }
+
+  /**
+   * Returns the segment closest to (x, y); the first one wins ties.
+   */
+  public int nearestSegment(double x, double y) {
+    int nearest = 0;
+    double minDistSq = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < segmentCount; i++) {
+      final double t = projectionFactor(i, x, y);
+      final double dx = startX[i] + t * dirX[i] - x;
+      final double dy = startY[i] + t * dirY[i] - y;
+      final double distSq = dx * dx + dy * dy;
+      if (distSq < minDistSq) {
+        minDistSq = distSq;
+        nearest = i;
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * Distance from the start of segment to the projection of (x, y) onto it,
+   * clamped to the segment.
+   */
+  public double projectionFactor(int segment, double x, double y) {
+    final double t = (x - startX[segment]) * dirX[segment]
+        + (y - startY[segment]) * dirY[segment];
+    if (t <= 0d)
+      return 0d;
+    else if (t >= segmentLength[segment])
+      return segmentLength[segment];
+    return t;
+  }
+
+}
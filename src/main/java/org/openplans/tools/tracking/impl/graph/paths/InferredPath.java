@@ -15,8 +15,9 @@ import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.openplans.tools.tracking.impl.Observation;
 import org.openplans.tools.tracking.impl.VehicleState;
 import org.openplans.tools.tracking.impl.graph.InferredEdge;
+import org.openplans.tools.tracking.impl.graph.SegmentTable;
+import org.openplans.tools.tracking.impl.statistics.LogNormalCdf;
 import org.openplans.tools.tracking.impl.statistics.StandardRoadTrackingFilter;
-import org.openplans.tools.tracking.impl.statistics.StatisticsUtil;
 import org.openplans.tools.tracking.impl.statistics.WrappedWeightedValue;
 
 import com.google.common.base.Preconditions;
@@ -74,6 +75,8 @@ public class InferredPath implements Comparable<InferredPath> {
 
   private final Geometry geometry;
 
+  private volatile SegmentTable segmentTable;
+
   private static InferredPath emptyPath = new InferredPath();
 
   private InferredPath() {
@@ -401,6 +404,22 @@ public class InferredPath implements Comparable<InferredPath> {
         pathLogLik);
   }
 
+  /**
+   * Segments of this path's geometry, in the path's direction. Single-edge
+   * paths share their edge's table.
+   */
+  public SegmentTable getSegmentTable() {
+    SegmentTable table = segmentTable;
+    if (table == null) {
+      if (edges.size() == 1 && isBackward != Boolean.TRUE)
+        table = edges.get(0).getInferredEdge().getSegmentTable();
+      else
+        table = new SegmentTable(geometry);
+      segmentTable = table;
+    }
+    return table;
+  }
+
   public InferredEdge getStartEdge() {
     return startSearchEdge;
   }
@@ -441,12 +460,12 @@ public class InferredPath implements Comparable<InferredPath> {
     MultivariateGaussian beliefPrediction) {
     Preconditions.checkArgument(beliefPrediction
         .getInputDimensionality() == 2);
-    final Matrix Or = StandardRoadTrackingFilter.getOr();
-    final double stdDev = Math.sqrt(Or
-        .times(beliefPrediction.getCovariance())
-        .times(Or.transpose()).getElement(0, 0));
-    final double mean = Or.times(beliefPrediction.getMean())
-        .getElement(0);
+    /*
+     * Or just picks out the location component.
+     */
+    final double stdDev = Math.sqrt(beliefPrediction.getCovariance()
+        .getElement(0, 0));
+    final double mean = beliefPrediction.getMean().getElement(0);
     final double direction = Math.signum(totalPathDistance);
     final double distToEndOfEdge = direction
         * edge.getInferredEdge().getLength()
@@ -456,10 +475,8 @@ public class InferredPath implements Comparable<InferredPath> {
     final double endDistance = direction > 0d ? distToEndOfEdge
         : edge.getDistToStartOfEdge();
 
-    // FIXME use actual log calculations
-    final double result = LogMath.subtract(
-        StatisticsUtil.normalCdf(endDistance, mean, stdDev, true),
-        StatisticsUtil.normalCdf(startDistance, mean, stdDev, true));
+    final double result = LogNormalCdf.logCdfDifference(
+        startDistance, endDistance, mean, stdDev);
 
     return result;
   }
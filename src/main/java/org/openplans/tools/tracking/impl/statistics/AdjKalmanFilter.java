@@ -91,8 +91,12 @@ public class AdjKalmanFilter extends AbstractKalmanFilter {
 
   @Override
   public MultivariateGaussian createInitialLearnedObject() {
+    /*
+     * The model covariance can be shared between filters, so the belief
+     * gets its own copy.
+     */
     return new MultivariateGaussian(
-        this.model.getState(), this.getModelCovariance());
+        this.model.getState(), this.getModelCovariance().clone());
   }
 
   /**
@@ -0,0 +1,109 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Walker's alias table, built with Vose's method, for O(1) draws from a
+ * discrete distribution over indices 0..n-1. <br>
+ * Building the table is O(n), so it pays off whenever a distribution is
+ * sampled more than a few times, e.g. resampling all particles from one set
+ * of weights. Zero-weight entries are never drawn.
+ */
+public class AliasSampler {
+
+  private final double[] probability;
+  private final int[] alias;
+  private final int size;
+
+  /**
+   * Builds the table from the first n log weights. At least one of them
+   * must be finite.
+   */
+  public AliasSampler(double[] logWeights, int n) {
+    Preconditions.checkArgument(n > 0);
+    this.size = n;
+    this.probability = new double[n];
+    this.alias = new int[n];
+
+    final double logTotal = LogWeights.normalize(
+        logWeights, n, probability);
+    Preconditions.checkArgument(logTotal != Double.NEGATIVE_INFINITY,
+        "all weights are zero");
+
+    /*
+     * Scale to mean 1 and split into under- and over-full entries.
+     * Zero-weight entries are under-full like any other; their slots are
+     * given over entirely to their aliases.
+     */
+    final int[] small = new int[n];
+    final int[] large = new int[n];
+    int numSmall = 0;
+    int numLarge = 0;
+    for (int i = 0; i < n; i++) {
+      probability[i] *= n;
+      alias[i] = i;
+      if (probability[i] < 1d)
+        small[numSmall++] = i;
+      else
+        large[numLarge++] = i;
+    }
+
+    while (numSmall > 0 && numLarge > 0) {
+      final int less = small[--numSmall];
+      final int more = large[--numLarge];
+      alias[less] = more;
+      probability[more] = (probability[more] + probability[less]) - 1d;
+      if (probability[more] < 1d)
+        small[numSmall++] = more;
+      else
+        large[numLarge++] = more;
+    }
+
+    /*
+     * What's left is full up to rounding error.
+     */
+    while (numLarge > 0)
+      probability[large[--numLarge]] = 1d;
+    while (numSmall > 0)
+      probability[small[--numSmall]] = 1d;
+  }
+
+  /**
+   * The alias of slot i.
+   */
+  int getAlias(int i) {
+    return alias[i];
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * The probability of drawing i itself, rather than its alias, once slot i
+   * is picked.
+   */
+  double getSlotProbability(int i) {
+    return probability[i];
+  }
+
+  public int sample(Random rng) {
+    final int i = rng.nextInt(size);
+    return rng.nextDouble() < probability[i] ? i : alias[i];
+  }
+
+  /**
+   * Builds a table over the values' log weights.
+   */
+  public static AliasSampler create(
+    List<? extends WrappedWeightedValue<?>> values) {
+    final int n = values.size();
+    final double[] logWeights = new double[n];
+    LogWeights.copyWeights(values, logWeights);
+    return new AliasSampler(logWeights, n);
+  }
+
+}
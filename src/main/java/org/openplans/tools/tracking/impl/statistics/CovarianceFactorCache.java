@@ -0,0 +1,50 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import gov.sandia.cognition.math.matrix.Matrix;
+import gov.sandia.cognition.math.matrix.Vector;
+import gov.sandia.cognition.math.matrix.mtj.DenseMatrixFactoryMTJ;
+import gov.sandia.cognition.math.matrix.mtj.decomposition.CholeskyDecompositionMTJ;
+import gov.sandia.cognition.statistics.distribution.MultivariateGaussian;
+
+import java.util.Random;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Cholesky factors of covariance matrices used for sampling, keyed by the
+ * matrix instance. <br>
+ * The covariances sampled from (observation and state noise covariances)
+ * are created with the filter parameters and never modified, so a factor
+ * only needs computing once per instance. Keys are weak and compared by
+ * identity, so entries go away with their matrices.
+ */
+public class CovarianceFactorCache {
+
+  private static final LoadingCache<Matrix, Matrix> factors = CacheBuilder
+      .newBuilder().weakKeys().build(new CacheLoader<Matrix, Matrix>() {
+        @Override
+        public Matrix load(Matrix covariance) {
+          return CholeskyDecompositionMTJ.create(
+              DenseMatrixFactoryMTJ.INSTANCE.copyMatrix(covariance))
+              .getR();
+        }
+      });
+
+  private CovarianceFactorCache() {
+  }
+
+  /**
+   * Returns the upper Cholesky factor R of covariance = R^T R. The result is
+   * shared and must not be modified.
+   */
+  public static Matrix getFactor(Matrix covariance) {
+    return factors.getUnchecked(covariance);
+  }
+
+  public static Vector sample(Vector mean, Matrix covariance, Random rng) {
+    return MultivariateGaussian.sample(mean, getFactor(covariance), rng);
+  }
+
+}
@@ -0,0 +1,183 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import java.util.TimeZone;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Fleet-wide speed samples per edge, accumulated into time-of-day buckets.
+ * <br>
+ * Each edge gets a primitive array of (weight, weighted sum, weighted sum of
+ * squares) triples, one per bucket, allocated the first time the edge is
+ * seen. The buckets wrap around midnight, so a sample is a constant-time add
+ * and summaries never rescan past results. Edges are guarded by striped locks, as in
+ * {@link EdgeVelocityStatistics}.
+ */
+public class EdgeSpeedAggregator {
+
+  /**
+   * Per-bucket speed statistics for one edge. Buckets without samples have
+   * zero weight, mean and standard deviation.
+   */
+  public static class SpeedSummary {
+    private final int edgeId;
+    private final int bucketMinutes;
+    private final double[] weights;
+    private final double[] means;
+    private final double[] stdDevs;
+
+    private SpeedSummary(int edgeId, int bucketMinutes, int bucketCount) {
+      this.edgeId = edgeId;
+      this.bucketMinutes = bucketMinutes;
+      this.weights = new double[bucketCount];
+      this.means = new double[bucketCount];
+      this.stdDevs = new double[bucketCount];
+    }
+
+    /**
+     * Length of each bucket; bucket i starts at i * bucketMinutes after
+     * midnight.
+     */
+    public int getBucketMinutes() {
+      return bucketMinutes;
+    }
+
+    public int getEdgeId() {
+      return edgeId;
+    }
+
+    public double[] getMeans() {
+      return means.clone();
+    }
+
+    public double[] getStdDevs() {
+      return stdDevs.clone();
+    }
+
+    /**
+     * The total sample weight, i.e. the effective number of observations.
+     */
+    public double getTotalWeight() {
+      double total = 0d;
+      for (final double weight : weights) {
+        total += weight;
+      }
+      return total;
+    }
+
+    public double[] getWeights() {
+      return weights.clone();
+    }
+  }
+
+  public static final int DEFAULT_BUCKET_MINUTES = 15;
+
+  private static final long MILLIS_PER_MINUTE = 60l * 1000l;
+  private static final long MILLIS_PER_DAY = 24l * 60l * MILLIS_PER_MINUTE;
+
+  /*
+   * Must be a power of two.
+   */
+  private static final int STRIPE_COUNT = 64;
+
+  private final int bucketMinutes;
+  private final int bucketCount;
+  private final TimeZone timeZone;
+
+  /*
+   * [bucket * 3] weight, [bucket * 3 + 1] weighted sum, [bucket * 3 + 2]
+   * weighted sum of squares.
+   */
+  private final double[][] edgeBuckets;
+
+  private final Object[] stripes = new Object[STRIPE_COUNT];
+
+  public EdgeSpeedAggregator(int edgeCount) {
+    this(edgeCount, DEFAULT_BUCKET_MINUTES, TimeZone.getDefault());
+  }
+
+  public EdgeSpeedAggregator(int edgeCount, int bucketMinutes,
+    TimeZone timeZone) {
+    Preconditions.checkArgument(edgeCount >= 0);
+    Preconditions.checkArgument(bucketMinutes > 0
+        && (24 * 60) % bucketMinutes == 0,
+        "bucket length must divide a day");
+    this.bucketMinutes = bucketMinutes;
+    this.bucketCount = 24 * 60 / bucketMinutes;
+    this.timeZone = Preconditions.checkNotNull(timeZone);
+    this.edgeBuckets = new double[edgeCount][];
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Object();
+    }
+  }
+
+  /**
+   * Adds a weighted speed sample for the edge, observed at the given time.
+   * Particle filters can pass 1 / numParticles so that each observation
+   * counts once in total.
+   */
+  public void add(int edgeId, long timeMillis, double speed,
+    double weight) {
+    final int offset = 3 * getBucket(timeMillis);
+    synchronized (stripeFor(edgeId)) {
+      double[] buckets = edgeBuckets[edgeId];
+      if (buckets == null) {
+        buckets = new double[3 * bucketCount];
+        edgeBuckets[edgeId] = buckets;
+      }
+      buckets[offset] += weight;
+      buckets[offset + 1] += weight * speed;
+      buckets[offset + 2] += weight * speed * speed;
+    }
+  }
+
+  /**
+   * The time-of-day bucket for the given time, in this aggregator's time
+   * zone.
+   */
+  public int getBucket(long timeMillis) {
+    long millisOfDay = (timeMillis + timeZone.getOffset(timeMillis))
+        % MILLIS_PER_DAY;
+    if (millisOfDay < 0)
+      millisOfDay += MILLIS_PER_DAY;
+    return (int) (millisOfDay / (bucketMinutes * MILLIS_PER_MINUTE));
+  }
+
+  public int getBucketCount() {
+    return bucketCount;
+  }
+
+  public int getBucketMinutes() {
+    return bucketMinutes;
+  }
+
+  public int getEdgeCount() {
+    return edgeBuckets.length;
+  }
+
+  public SpeedSummary getSummary(int edgeId) {
+    final SpeedSummary summary = new SpeedSummary(
+        edgeId, bucketMinutes, bucketCount);
+    synchronized (stripeFor(edgeId)) {
+      final double[] buckets = edgeBuckets[edgeId];
+      if (buckets == null)
+        return summary;
+      for (int i = 0; i < bucketCount; i++) {
+        final double weight = buckets[3 * i];
+        if (weight == 0d)
+          continue;
+        final double mean = buckets[3 * i + 1] / weight;
+        summary.weights[i] = weight;
+        summary.means[i] = mean;
+        summary.stdDevs[i] = Math.sqrt(Math.max(0d,
+            buckets[3 * i + 2] / weight - mean * mean));
+      }
+    }
+    return summary;
+  }
+
+  private Object stripeFor(int edgeId) {
+    return stripes[edgeId & (STRIPE_COUNT - 1)];
+  }
+
+}
@@ -2,57 +2,153 @@ package org.openplans.tools.tracking.impl.statistics;
 
 import gov.sandia.cognition.math.matrix.Vector;
 import gov.sandia.cognition.math.matrix.VectorFactory;
-import gov.sandia.cognition.math.matrix.mtj.DenseVector;
-import gov.sandia.cognition.statistics.bayesian.conjugate.MultinomialBayesianEstimator;
 import gov.sandia.cognition.statistics.distribution.DirichletDistribution;
-import gov.sandia.cognition.statistics.distribution.MultinomialDistribution;
-import gov.sandia.cognition.statistics.distribution.MultivariatePolyaDistribution;
 import gov.sandia.cognition.util.AbstractCloneableSerializable;
 
-import java.util.Arrays;
+import java.io.Serializable;
 import java.util.List;
 import java.util.Random;
 
-import org.apache.commons.lang.builder.CompareToBuilder;
 import org.openplans.tools.tracking.impl.graph.InferredEdge;
 import org.openplans.tools.tracking.impl.util.OtpGraph;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Lists;
 
 /**
  * Class representing the transition from one edge to another. For now we use
  * three transition types: 1. off-road to off-road/on-road to on-road 2.
- * off-road to on-road 3. on-road to off-road
- * 
+ * off-road to on-road 3. on-road to off-road <br>
+ * Each motion type has a Dirichlet prior over its two transitions and a
+ * multinomial likelihood with one trial, so the posterior is just the prior
+ * parameters plus the transition counts. The prior is immutable and shared
+ * between clones; each instance only carries its four counts and the
+ * transition probabilities currently in use, which start at the prior mean
+ * and are replaced by posterior samples as the filter runs.
+ *
  * @author bwillard
- * 
+ *
  */
 public class EdgeTransitionDistributions extends
     AbstractCloneableSerializable implements
     Comparable<EdgeTransitionDistributions> {
 
+  /**
+   * Dirichlet prior parameters for free- and edge-motion transitions, along
+   * with the log probabilities of the prior means.
+   */
+  public static class Prior implements Serializable {
+
+    private static final long serialVersionUID = 4436419707004391862L;
+
+    private final double offToOff;
+    private final double offToOn;
+    private final double onToOn;
+    private final double onToOff;
+
+    private final double offToOnProb;
+    private final double onToOffProb;
+    private final double logOffToOffProb;
+    private final double logOffToOnProb;
+    private final double logOnToOnProb;
+    private final double logOnToOffProb;
+
+    /**
+     * @param edgeMotionPriorParams
+     *          (on to on, on to off) Dirichlet parameters
+     * @param freeMotionPriorParams
+     *          (off to off, off to on) Dirichlet parameters
+     */
+    public Prior(Vector edgeMotionPriorParams,
+      Vector freeMotionPriorParams) {
+      Preconditions.checkArgument(edgeMotionPriorParams
+          .getDimensionality() == 2);
+      Preconditions.checkArgument(freeMotionPriorParams
+          .getDimensionality() == 2);
+      this.onToOn = edgeMotionPriorParams.getElement(0);
+      this.onToOff = edgeMotionPriorParams.getElement(1);
+      this.offToOff = freeMotionPriorParams.getElement(0);
+      this.offToOn = freeMotionPriorParams.getElement(1);
+      Preconditions.checkArgument(onToOn > 0d && onToOff > 0d
+          && offToOff > 0d && offToOn > 0d);
+
+      this.offToOnProb = offToOn / (offToOff + offToOn);
+      this.onToOffProb = onToOff / (onToOn + onToOff);
+      this.logOffToOffProb = Math.log(offToOff / (offToOff + offToOn));
+      this.logOffToOnProb = Math.log(offToOnProb);
+      this.logOnToOnProb = Math.log(onToOn / (onToOn + onToOff));
+      this.logOnToOffProb = Math.log(onToOffProb);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null) {
+        return false;
+      }
+      if (getClass() != obj.getClass()) {
+        return false;
+      }
+      final Prior other = (Prior) obj;
+      return Double.compare(offToOff, other.offToOff) == 0
+          && Double.compare(offToOn, other.offToOn) == 0
+          && Double.compare(onToOn, other.onToOn) == 0
+          && Double.compare(onToOff, other.onToOff) == 0;
+    }
+
+    public double getOffToOff() {
+      return offToOff;
+    }
+
+    public double getOffToOn() {
+      return offToOn;
+    }
+
+    public double getOnToOff() {
+      return onToOff;
+    }
+
+    public double getOnToOn() {
+      return onToOn;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(offToOff, offToOn, onToOn, onToOff);
+    }
+
+    @Override
+    public String toString() {
+      return "Prior [offToOff=" + offToOff + ", offToOn=" + offToOn
+          + ", onToOn=" + onToOn + ", onToOff=" + onToOff + "]";
+    }
+  }
+
   private static final long serialVersionUID = -8329433263373783485L;
 
+  private final Prior prior;
+
   /*
-   * Distribution corresponding to free-movement -> free-movement and
-   * free-movement -> edge-movement
+   * Observed transition counts, added to the prior parameters.
    */
-  DirichletDistribution freeMotionTransProbPrior;
-  MultinomialDistribution freeMotionTransPrior = new MultinomialDistribution(
-      2, 1);
-  MultinomialBayesianEstimator freeMotionTransEstimator = new MultinomialBayesianEstimator(
-      freeMotionTransPrior, freeMotionTransProbPrior);
+  private int offToOffCount = 0;
+  private int offToOnCount = 0;
+  private int onToOnCount = 0;
+  private int onToOffCount = 0;
 
   /*
-   * Distribution corresponding to edge-movement -> free-movement and
-   * edge-movement -> edge-movement
+   * Transition probabilities used by evaluate and sample.
    */
-  DirichletDistribution edgeMotionTransProbPrior;
-  MultinomialDistribution edgeMotionTransPrior = new MultinomialDistribution(
-      2, 1);
-  MultinomialBayesianEstimator edgeMotionTransEstimator = new MultinomialBayesianEstimator(
-      freeMotionTransPrior, freeMotionTransProbPrior);
+  private double offToOnProb;
+  private double onToOffProb;
+  private double logOffToOffProb;
+  private double logOffToOnProb;
+  private double logOnToOnProb;
+  private double logOnToOffProb;
 
   private final OtpGraph graph;
 
@@ -66,64 +162,40 @@ public class EdgeTransitionDistributions extends
   private static final Vector stateOnToOff = VectorFactory
       .getDefault().copyValues(0d, 1d);
 
+  public EdgeTransitionDistributions(OtpGraph graph, Prior prior) {
+    this.graph = graph;
+    this.prior = Preconditions.checkNotNull(prior);
+    this.offToOnProb = prior.offToOnProb;
+    this.onToOffProb = prior.onToOffProb;
+    this.logOffToOffProb = prior.logOffToOffProb;
+    this.logOffToOnProb = prior.logOffToOnProb;
+    this.logOnToOnProb = prior.logOnToOnProb;
+    this.logOnToOffProb = prior.logOnToOffProb;
+  }
+
   public EdgeTransitionDistributions(OtpGraph graph,
     Vector edgeMotionPriorParams, Vector freeMotionPriorParams) {
-    this.graph = graph;
-    this.freeMotionTransProbPrior = new DirichletDistribution(
-        freeMotionPriorParams);
-    this.edgeMotionTransProbPrior = new DirichletDistribution(
-        edgeMotionPriorParams);
-    /*
-     * Start by setting the means.
-     */
-    freeMotionTransPrior.setParameters(freeMotionTransProbPrior
-        .getMean());
-    edgeMotionTransPrior.setParameters(edgeMotionTransProbPrior
-        .getMean());
+    this(graph, new Prior(edgeMotionPriorParams, freeMotionPriorParams));
   }
 
   @Override
   public EdgeTransitionDistributions clone() {
-    final EdgeTransitionDistributions transDist = (EdgeTransitionDistributions) super
-        .clone();
-    transDist.edgeMotionTransEstimator = (MultinomialBayesianEstimator) this.edgeMotionTransEstimator
-        .clone();
-    transDist.freeMotionTransEstimator = (MultinomialBayesianEstimator) this.freeMotionTransEstimator
-        .clone();
-    transDist.edgeMotionTransPrior = this.edgeMotionTransPrior
-        .clone();
-    transDist.freeMotionTransPrior = this.freeMotionTransPrior
-        .clone();
-    transDist.edgeMotionTransProbPrior = this.edgeMotionTransProbPrior
-        .clone();
-    transDist.freeMotionTransProbPrior = this.freeMotionTransProbPrior
-        .clone();
-
-    return transDist;
+    return (EdgeTransitionDistributions) super.clone();
   }
 
   @Override
   public int compareTo(EdgeTransitionDistributions o) {
-    final CompareToBuilder comparator = new CompareToBuilder();
-    comparator.append(
-        ((DenseVector) this.edgeMotionTransPrior.getParameters())
-            .getArray(), ((DenseVector) o.edgeMotionTransPrior
-            .getParameters()).getArray());
-    comparator.append(
-        ((DenseVector) this.freeMotionTransPrior.getParameters())
-            .getArray(), ((DenseVector) o.freeMotionTransPrior
-            .getParameters()).getArray());
-
-    comparator.append(
-        ((DenseVector) this.edgeMotionTransProbPrior.getParameters())
-            .getArray(), ((DenseVector) o.edgeMotionTransProbPrior
-            .getParameters()).getArray());
-    comparator.append(
-        ((DenseVector) this.freeMotionTransProbPrior.getParameters())
-            .getArray(), ((DenseVector) o.freeMotionTransProbPrior
-            .getParameters()).getArray());
-
-    return comparator.toComparison();
+    return ComparisonChain.start()
+        .compare(this.prior.onToOn, o.prior.onToOn)
+        .compare(this.prior.onToOff, o.prior.onToOff)
+        .compare(this.prior.offToOff, o.prior.offToOff)
+        .compare(this.prior.offToOn, o.prior.offToOn)
+        .compare(this.onToOnCount, o.onToOnCount)
+        .compare(this.onToOffCount, o.onToOffCount)
+        .compare(this.offToOffCount, o.offToOffCount)
+        .compare(this.offToOnCount, o.offToOnCount)
+        .compare(this.onToOffProb, o.onToOffProb)
+        .compare(this.offToOnProb, o.offToOnProb).result();
   }
 
   @Override
@@ -138,111 +210,95 @@ public class EdgeTransitionDistributions extends
       return false;
     }
     final EdgeTransitionDistributions other = (EdgeTransitionDistributions) obj;
-    if (edgeMotionTransPrior == null) {
-      if (other.edgeMotionTransPrior != null) {
-        return false;
-      }
-    } else if (!Arrays.equals(
-        ((DenseVector) edgeMotionTransPrior.getParameters())
-            .getArray(), ((DenseVector) other.edgeMotionTransPrior
-            .getParameters()).getArray())) {
-      return false;
-    }
-    if (edgeMotionTransProbPrior == null) {
-      if (other.edgeMotionTransProbPrior != null) {
-        return false;
-      }
-    } else if (!Arrays
-        .equals(
-            ((DenseVector) edgeMotionTransProbPrior.getParameters())
-                .getArray(),
-            ((DenseVector) other.edgeMotionTransProbPrior
-                .getParameters()).getArray())) {
-      return false;
-    }
-    if (freeMotionTransPrior == null) {
-      if (other.freeMotionTransPrior != null) {
-        return false;
-      }
-    } else if (!Arrays.equals(
-        ((DenseVector) freeMotionTransPrior.getParameters())
-            .getArray(), ((DenseVector) other.freeMotionTransPrior
-            .getParameters()).getArray())) {
-      return false;
-    }
-    if (freeMotionTransProbPrior == null) {
-      if (other.freeMotionTransProbPrior != null) {
-        return false;
-      }
-    } else if (!Arrays
-        .equals(
-            ((DenseVector) freeMotionTransProbPrior.getParameters())
-                .getArray(),
-            ((DenseVector) other.freeMotionTransProbPrior
-                .getParameters()).getArray())) {
-      return false;
-    }
-    return true;
+    return offToOffCount == other.offToOffCount
+        && offToOnCount == other.offToOnCount
+        && onToOnCount == other.onToOnCount
+        && onToOffCount == other.onToOffCount
+        && Double.compare(onToOffProb, other.onToOffProb) == 0
+        && Double.compare(offToOnProb, other.offToOnProb) == 0
+        && prior.equals(other.prior);
   }
 
+  /**
+   * The probability of the transition under the current transition
+   * probabilities.
+   */
   public double evaluate(InferredEdge from, InferredEdge to) {
-    if (from.isEmptyEdge()) {
-      return freeMotionTransPrior.getProbabilityFunction().evaluate(
-          getTransitionType(from, to));
-    } else {
-      return edgeMotionTransPrior.getProbabilityFunction().evaluate(
-          getTransitionType(from, to));
-    }
+    return Math.exp(logEvaluate(from, to));
+  }
+
+  /**
+   * Dirichlet posterior parameters for edge motion: (on to on, on to off)
+   * prior parameters plus counts.
+   */
+  public Vector getEdgeMotionPosteriorParams() {
+    return VectorFactory.getDefault().copyValues(
+        prior.onToOn + onToOnCount, prior.onToOff + onToOffCount);
+  }
+
+  /**
+   * Dirichlet posterior parameters for free motion: (off to off, off to on)
+   * prior parameters plus counts.
+   */
+  public Vector getFreeMotionPosteriorParams() {
+    return VectorFactory.getDefault().copyValues(
+        prior.offToOff + offToOffCount, prior.offToOn + offToOnCount);
+  }
+
+  public int getOffToOffCount() {
+    return offToOffCount;
+  }
+
+  public int getOffToOnCount() {
+    return offToOnCount;
+  }
+
+  public int getOnToOffCount() {
+    return onToOffCount;
+  }
+
+  public int getOnToOnCount() {
+    return onToOnCount;
+  }
+
+  public Prior getPrior() {
+    return prior;
   }
 
   @Override
   public int hashCode() {
-    final int prime = 31;
-    int result = 1;
-    result = prime
-        * result
-        + ((edgeMotionTransPrior == null) ? 0 : Arrays
-            .hashCode(((DenseVector) edgeMotionTransPrior
-                .getParameters()).getArray()));
-    result = prime
-        * result
-        + ((edgeMotionTransProbPrior == null) ? 0 : Arrays
-            .hashCode(((DenseVector) edgeMotionTransProbPrior
-                .getParameters()).getArray()));
-    result = prime
-        * result
-        + ((freeMotionTransPrior == null) ? 0 : Arrays
-            .hashCode(((DenseVector) freeMotionTransPrior
-                .getParameters()).getArray()));
-    result = prime
-        * result
-        + ((freeMotionTransProbPrior == null) ? 0 : Arrays
-            .hashCode(((DenseVector) freeMotionTransProbPrior
-                .getParameters()).getArray()));
-    return result;
+    return Objects.hashCode(prior, offToOffCount, offToOnCount,
+        onToOnCount, onToOffCount, onToOffProb, offToOnProb);
   }
 
+  /**
+   * The log probability of the transition under the current transition
+   * probabilities.
+   */
   public double logEvaluate(InferredEdge from, InferredEdge to) {
     if (from.isEmptyEdge()) {
-      return freeMotionTransPrior.getProbabilityFunction()
-          .logEvaluate(getTransitionType(from, to));
+      return to.isEmptyEdge() ? logOffToOffProb : logOffToOnProb;
     } else {
-      return edgeMotionTransPrior.getProbabilityFunction()
-          .logEvaluate(getTransitionType(from, to));
+      return to.isEmptyEdge() ? logOnToOffProb : logOnToOnProb;
     }
   }
 
+  /**
+   * The log of the posterior predictive (Polya, one trial) probability of the
+   * transition, i.e. (alpha_k + n_k) / sum(alpha + n).
+   */
   public double predictiveLogLikelihood(InferredEdge from,
     InferredEdge to) {
-    final Vector state = getTransitionType(from, to);
     if (from.isEmptyEdge()) {
-      final MultivariatePolyaDistribution predDist = freeMotionTransEstimator
-          .createPredictiveDistribution(freeMotionTransProbPrior);
-      return predDist.getProbabilityFunction().logEvaluate(state);
+      final double offToOff = prior.offToOff + offToOffCount;
+      final double offToOn = prior.offToOn + offToOnCount;
+      return Math.log((to.isEmptyEdge() ? offToOff : offToOn)
+          / (offToOff + offToOn));
     } else {
-      final MultivariatePolyaDistribution predDist = edgeMotionTransEstimator
-          .createPredictiveDistribution(edgeMotionTransProbPrior);
-      return predDist.getProbabilityFunction().logEvaluate(state);
+      final double onToOn = prior.onToOn + onToOnCount;
+      final double onToOff = prior.onToOff + onToOffCount;
+      return Math.log((to.isEmptyEdge() ? onToOff : onToOn)
+          / (onToOn + onToOff));
     }
   }
 
@@ -262,9 +318,7 @@ public class EdgeTransitionDistributions extends
       if (transferEdges.isEmpty()) {
         return InferredEdge.getEmptyEdge();
       } else {
-        final Vector sample = this.freeMotionTransPrior.sample(rng);
-
-        if (sample.equals(stateOffToOn)) {
+        if (rng.nextDouble() < offToOnProb) {
           return transferEdges.get(rng.nextInt(transferEdges.size()));
         } else {
           return InferredEdge.getEmptyEdge();
@@ -275,9 +329,7 @@ public class EdgeTransitionDistributions extends
        * We're on an edge, so sample whether we go off-road, or transfer/stay
        * on.
        */
-      final Vector sample = this.edgeMotionTransPrior.sample(rng);
-
-      if (sample.equals(stateOnToOff) || transferEdges.isEmpty()) {
+      if (rng.nextDouble() < onToOffProb || transferEdges.isEmpty()) {
         return InferredEdge.getEmptyEdge();
       } else {
         final List<InferredEdge> support = Lists
@@ -289,22 +341,56 @@ public class EdgeTransitionDistributions extends
 
   }
 
+  /**
+   * Replaces the transition probabilities with a draw from the Dirichlet
+   * posteriors.
+   */
+  public void sampleTransitionProbabilities(Random rng) {
+    setTransitionProbabilities(
+        new DirichletDistribution(getEdgeMotionPosteriorParams())
+            .sample(rng),
+        new DirichletDistribution(getFreeMotionPosteriorParams())
+            .sample(rng));
+  }
+
+  /**
+   * @param edgeMotionProbs
+   *          (on to on, on to off) probabilities
+   * @param freeMotionProbs
+   *          (off to off, off to on) probabilities
+   */
+  public void setTransitionProbabilities(Vector edgeMotionProbs,
+    Vector freeMotionProbs) {
+    Preconditions.checkArgument(edgeMotionProbs.getDimensionality() == 2);
+    Preconditions.checkArgument(freeMotionProbs.getDimensionality() == 2);
+    this.onToOffProb = edgeMotionProbs.getElement(1);
+    this.offToOnProb = freeMotionProbs.getElement(1);
+    this.logOnToOnProb = Math.log(edgeMotionProbs.getElement(0));
+    this.logOnToOffProb = Math.log(onToOffProb);
+    this.logOffToOffProb = Math.log(freeMotionProbs.getElement(0));
+    this.logOffToOnProb = Math.log(offToOnProb);
+  }
+
   @Override
   public String toString() {
-    return "EdgeTransitionDistributions [freeMotionTransPrior="
-        + freeMotionTransPrior.getParameters()
-        + ", edgeMotionTransPrior="
-        + edgeMotionTransPrior.getParameters() + "]";
+    return "EdgeTransitionDistributions [prior=" + prior
+        + ", offToOffCount=" + offToOffCount + ", offToOnCount="
+        + offToOnCount + ", onToOnCount=" + onToOnCount
+        + ", onToOffCount=" + onToOffCount + ", onToOffProb="
+        + onToOffProb + ", offToOnProb=" + offToOnProb + "]";
   }
 
   public void update(InferredEdge from, InferredEdge to) {
-    final Vector transType = getTransitionType(from, to);
     if (from.isEmptyEdge()) {
-      freeMotionTransEstimator.update(
-          freeMotionTransProbPrior, transType);
+      if (to.isEmptyEdge())
+        offToOffCount++;
+      else
+        offToOnCount++;
     } else {
-      edgeMotionTransEstimator.update(
-          edgeMotionTransProbPrior, transType);
+      if (to.isEmptyEdge())
+        onToOffCount++;
+      else
+        onToOnCount++;
     }
   }
 
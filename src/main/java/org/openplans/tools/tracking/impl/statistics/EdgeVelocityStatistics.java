@@ -0,0 +1,151 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import gov.sandia.cognition.statistics.distribution.NormalInverseGammaDistribution;
+
+import java.util.Arrays;
+
+/**
+ * Velocity posteriors for every edge in the graph, kept in primitive arrays
+ * indexed by edge id instead of a distribution/estimator pair per edge. <br>
+ * Each entry holds the parameters of a normal-inverse-gamma distribution
+ * (location, precision, shape, scale), updated with the usual conjugate
+ * update for a single observation. <br>
+ * Edges are guarded by a fixed set of striped locks, so vehicles updating
+ * different edges rarely contend, and the four parameters of an edge are
+ * always read and written together. {@link #snapshot()} copies every edge
+ * for readers that want a consistent view without holding any locks.
+ */
+public class EdgeVelocityStatistics {
+
+  /**
+   * An immutable copy of the statistics, consistent per edge.
+   */
+  public static class Snapshot {
+    private final double[] location;
+    private final double[] precision;
+    private final double[] shape;
+    private final double[] scale;
+
+    private Snapshot(int edgeCount) {
+      this.location = new double[edgeCount];
+      this.precision = new double[edgeCount];
+      this.shape = new double[edgeCount];
+      this.scale = new double[edgeCount];
+    }
+
+    public NormalInverseGammaDistribution getDistribution(int edgeId) {
+      return new NormalInverseGammaDistribution(
+          location[edgeId], precision[edgeId], shape[edgeId],
+          scale[edgeId]);
+    }
+
+    public int getEdgeCount() {
+      return location.length;
+    }
+
+    public double getMean(int edgeId) {
+      return location[edgeId];
+    }
+
+    /**
+     * The number of observations this edge has been updated with.
+     */
+    public int getObservationCount(int edgeId) {
+      return (int) Math.round(precision[edgeId] - PRIOR_PRECISION);
+    }
+  }
+
+  /*
+   * ~4.4 m/s, std. dev ~ 30 m/s, Gamma with exp. value = 30 m/s
+   * TODO perhaps variance of velocity should be in m/s^2. yeah...
+   */
+  public static final double PRIOR_LOCATION = 4.4d;
+  public static final double PRIOR_PRECISION = 1d / Math.pow(30d, 2d);
+  public static final double PRIOR_SHAPE = 1d / Math.pow(30d, 2d) + 1d;
+  public static final double PRIOR_SCALE = Math.pow(30d, 2d);
+
+  private final double[] location;
+  private final double[] precision;
+  private final double[] shape;
+  private final double[] scale;
+
+  /*
+   * Must be a power of two.
+   */
+  private static final int STRIPE_COUNT = 64;
+
+  private final Object[] stripes = new Object[STRIPE_COUNT];
+
+  public EdgeVelocityStatistics(int edgeCount) {
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Object();
+    }
+    this.location = new double[edgeCount];
+    this.precision = new double[edgeCount];
+    this.shape = new double[edgeCount];
+    this.scale = new double[edgeCount];
+    Arrays.fill(location, PRIOR_LOCATION);
+    Arrays.fill(precision, PRIOR_PRECISION);
+    Arrays.fill(shape, PRIOR_SHAPE);
+    Arrays.fill(scale, PRIOR_SCALE);
+  }
+
+  /**
+   * Returns a copy of the current posterior for the given edge.
+   */
+  public NormalInverseGammaDistribution getDistribution(int edgeId) {
+    synchronized (stripeFor(edgeId)) {
+      return new NormalInverseGammaDistribution(
+          location[edgeId], precision[edgeId], shape[edgeId],
+          scale[edgeId]);
+    }
+  }
+
+  public int getEdgeCount() {
+    return location.length;
+  }
+
+  public double getMean(int edgeId) {
+    synchronized (stripeFor(edgeId)) {
+      return location[edgeId];
+    }
+  }
+
+  /**
+   * Copies the statistics of every edge, one stripe at a time.
+   */
+  public Snapshot snapshot() {
+    final Snapshot snapshot = new Snapshot(location.length);
+    for (int stripe = 0; stripe < STRIPE_COUNT; stripe++) {
+      synchronized (stripes[stripe]) {
+        for (int i = stripe; i < location.length; i += STRIPE_COUNT) {
+          snapshot.location[i] = location[i];
+          snapshot.precision[i] = precision[i];
+          snapshot.shape[i] = shape[i];
+          snapshot.scale[i] = scale[i];
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Conjugate update of the edge's posterior with one velocity observation.
+   */
+  public void update(int edgeId, double velocity) {
+    synchronized (stripeFor(edgeId)) {
+      final double mean = location[edgeId];
+      final double lambda = precision[edgeId];
+      final double delta = velocity - mean;
+      location[edgeId] = (lambda * mean + velocity) / (lambda + 1d);
+      precision[edgeId] = lambda + 1d;
+      shape[edgeId] += 0.5d;
+      scale[edgeId] += lambda * delta * delta / (2d * (lambda + 1d));
+    }
+  }
+
+  private Object stripeFor(int edgeId) {
+    return stripes[edgeId & (STRIPE_COUNT - 1)];
+  }
+
+}
@@ -0,0 +1,212 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import gov.sandia.cognition.math.matrix.Matrix;
+import gov.sandia.cognition.math.matrix.MatrixFactory;
+import gov.sandia.cognition.math.matrix.Vector;
+import gov.sandia.cognition.math.matrix.VectorFactory;
+import gov.sandia.cognition.statistics.distribution.MultivariateGaussian;
+
+/**
+ * Hand-unrolled Kalman filter routines for the constant-velocity models used
+ * by {@link StandardRoadTrackingFilter}: the 2-D road state [location,
+ * velocity] and the 4-D ground state [x, x velocity, y, y velocity]. <br>
+ * Means are double[n] and covariances row-major double[n*n]. The kernels
+ * work in place on the arrays they're given and don't allocate. Ground
+ * observations are the position components, i.e. the observation matrix is
+ * {@link StandardRoadTrackingFilter#getOg()}.
+ */
+public class KalmanKernels {
+
+  private KalmanKernels() {
+  }
+
+  /**
+   * Copies the elements of the n x n matrix into dest, row-major.
+   */
+  public static void copyToArray(Matrix matrix, double[] dest) {
+    final int n = matrix.getNumRows();
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        dest[i * n + j] = matrix.getElement(i, j);
+      }
+    }
+  }
+
+  public static void copyToArray(Vector vector, double[] dest) {
+    final int n = vector.getDimensionality();
+    for (int i = 0; i < n; i++) {
+      dest[i] = vector.getElement(i);
+    }
+  }
+
+  /**
+   * Log-likelihood of the ground observation (obsX, obsY) under the
+   * predictive distribution of the ground state mean, cov and measurement
+   * covariance obsCov.
+   */
+  public static double groundLogLikelihood(double obsX, double obsY,
+    double[] mean, double[] cov, double[] obsCov) {
+    return StatisticsUtil.logEvaluateNormal(obsX, obsY, mean[0],
+        mean[2], cov[0] + obsCov[0], cov[2] + obsCov[1], cov[10]
+            + obsCov[3]);
+  }
+
+  /**
+   * Constant-velocity prediction of a 2-D road state: m = G m and P = G P G^T
+   * + Q, with G = [1 dt; 0 1].
+   */
+  public static void predict2D(double[] mean, double[] cov, double dt,
+    double[] modelCov) {
+    mean[0] += dt * mean[1];
+    transformBlock(cov, 2, 0, 0, dt);
+    cov[0] += modelCov[0];
+    cov[1] += modelCov[1];
+    cov[2] += modelCov[2];
+    cov[3] += modelCov[3];
+  }
+
+  /**
+   * Constant-velocity prediction of a 4-D ground state. G is block-diagonal
+   * in the x and y components, so each 2x2 block of P transforms
+   * independently.
+   */
+  public static void predict4D(double[] mean, double[] cov, double dt,
+    double[] modelCov) {
+    mean[0] += dt * mean[1];
+    mean[2] += dt * mean[3];
+    transformBlock(cov, 4, 0, 0, dt);
+    transformBlock(cov, 4, 0, 2, dt);
+    transformBlock(cov, 4, 2, 0, dt);
+    transformBlock(cov, 4, 2, 2, dt);
+    for (int i = 0; i < 16; i++) {
+      cov[i] += modelCov[i];
+    }
+  }
+
+  /**
+   * Projects a 4-D ground state onto the observation space: the mean is
+   * written to obsMean[2] and Og P Og^T + obsCov to obsCovOut[4].
+   */
+  public static void projectGround(double[] mean, double[] cov,
+    double[] obsCov, double[] obsMean, double[] obsCovOut) {
+    obsMean[0] = mean[0];
+    obsMean[1] = mean[2];
+    obsCovOut[0] = cov[0] + obsCov[0];
+    obsCovOut[1] = cov[2] + obsCov[1];
+    obsCovOut[2] = cov[8] + obsCov[2];
+    obsCovOut[3] = cov[10] + obsCov[3];
+  }
+
+  /**
+   * Sets the belief's mean and covariance from the arrays. New objects are
+   * created, since the belief's current ones may be shared with clones.
+   */
+  public static void setBelief(MultivariateGaussian belief,
+    double[] mean, double[] cov) {
+    final int n = belief.getInputDimensionality();
+    final Vector newMean = VectorFactory.getDefault().createVector(n);
+    final Matrix newCov = MatrixFactory.getDefault().createMatrix(n, n);
+    for (int i = 0; i < n; i++) {
+      newMean.setElement(i, mean[i]);
+      for (int j = 0; j < n; j++) {
+        newCov.setElement(i, j, cov[i * n + j]);
+      }
+    }
+    belief.setMean(newMean);
+    belief.setCovariance(newCov);
+  }
+
+  /**
+   * Kalman update of a 4-D ground state with the position observation (obsX,
+   * obsY) and measurement covariance obsCov. The innovation covariance is
+   * inverted in closed form and only the upper triangle of the posterior
+   * covariance is computed, so it stays exactly symmetric.
+   */
+  public static void updateGround(double[] mean, double[] cov,
+    double obsX, double obsY, double[] obsCov) {
+    /*
+     * P C^T is columns 0 and 2 of P, which by symmetry are rows 0 and 2.
+     */
+    final double p00 = cov[0], p01 = cov[1], p02 = cov[2], p03 = cov[3];
+    final double p20 = cov[8], p21 = cov[9], p22 = cov[10], p23 = cov[11];
+
+    final double s00 = p00 + obsCov[0];
+    final double s01 = p02 + obsCov[1];
+    final double s11 = p22 + obsCov[3];
+    final double det = s00 * s11 - s01 * s01;
+    final double i00 = s11 / det;
+    final double i01 = -s01 / det;
+    final double i11 = s00 / det;
+
+    /*
+     * K = P C^T S^-1
+     */
+    final double k00 = p00 * i00 + p20 * i01;
+    final double k01 = p00 * i01 + p20 * i11;
+    final double k10 = p01 * i00 + p21 * i01;
+    final double k11 = p01 * i01 + p21 * i11;
+    final double k20 = p02 * i00 + p22 * i01;
+    final double k21 = p02 * i01 + p22 * i11;
+    final double k30 = p03 * i00 + p23 * i01;
+    final double k31 = p03 * i01 + p23 * i11;
+
+    final double e0 = obsX - mean[0];
+    final double e1 = obsY - mean[2];
+    mean[0] += k00 * e0 + k01 * e1;
+    mean[1] += k10 * e0 + k11 * e1;
+    mean[2] += k20 * e0 + k21 * e1;
+    mean[3] += k30 * e0 + k31 * e1;
+
+    /*
+     * P = P - K C P, where row i of K C P is k_i0 * row 0 + k_i1 * row 2.
+     */
+    updateRow(cov, 0, k00, k01, p00, p01, p02, p03, p20, p21, p22, p23);
+    updateRow(cov, 1, k10, k11, p00, p01, p02, p03, p20, p21, p22, p23);
+    updateRow(cov, 2, k20, k21, p00, p01, p02, p03, p20, p21, p22, p23);
+    updateRow(cov, 3, k30, k31, p00, p01, p02, p03, p20, p21, p22, p23);
+  }
+
+  /**
+   * Replaces the 2x2 block of the n x n matrix at (row, col) by G B G^T, with
+   * G = [1 dt; 0 1].
+   */
+  private static void transformBlock(double[] cov, int n, int row,
+    int col, double dt) {
+    final int i0 = row * n + col;
+    final int i1 = i0 + n;
+    final double a = cov[i0];
+    final double b = cov[i0 + 1];
+    final double c = cov[i1];
+    final double d = cov[i1 + 1];
+    cov[i0] = a + dt * (b + c) + dt * dt * d;
+    cov[i0 + 1] = b + dt * d;
+    cov[i1] = c + dt * d;
+  }
+
+  /**
+   * Subtracts k0 * row0 + k1 * row2 from row i of the 4x4 covariance, on and
+   * above the diagonal, and mirrors the result below it.
+   */
+  private static void updateRow(double[] cov, int i, double k0,
+    double k1, double r00, double r01, double r02, double r03,
+    double r20, double r21, double r22, double r23) {
+    final int row = i * 4;
+    switch (i) {
+    case 0:
+      cov[row] -= k0 * r00 + k1 * r20;
+      //$FALL-THROUGH$
+    case 1:
+      cov[row + 1] -= k0 * r01 + k1 * r21;
+      //$FALL-THROUGH$
+    case 2:
+      cov[row + 2] -= k0 * r02 + k1 * r22;
+      //$FALL-THROUGH$
+    default:
+      cov[row + 3] -= k0 * r03 + k1 * r23;
+    }
+    for (int j = 0; j < i; j++) {
+      cov[row + j] = cov[j * 4 + i];
+    }
+  }
+
+}
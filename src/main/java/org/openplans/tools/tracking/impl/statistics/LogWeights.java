@@ -0,0 +1,90 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Log-weight normalization and sampling over primitive arrays, for use in
+ * place of object-keyed distributions built from weighted lists. <br>
+ * Log-sums are computed with a single max-shifted pass instead of pairwise
+ * {@code LogMath.add} calls. Only the first n entries of an array are used,
+ * so callers can reuse larger buffers.
+ */
+public class LogWeights {
+
+  private LogWeights() {
+  }
+
+  /**
+   * Copies the weights of the first n values into logWeights.
+   */
+  public static void copyWeights(
+    List<? extends WrappedWeightedValue<?>> values, double[] logWeights) {
+    final int n = values.size();
+    for (int i = 0; i < n; i++) {
+      logWeights[i] = values.get(i).getWeight();
+    }
+  }
+
+  /**
+   * log(sum(exp(logWeights[0..n-1]))). Returns negative infinity if all
+   * weights are negative infinity, or n is zero.
+   */
+  public static double logSumExp(double[] logWeights, int n) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      if (logWeights[i] > max)
+        max = logWeights[i];
+    }
+    if (max == Double.NEGATIVE_INFINITY)
+      return Double.NEGATIVE_INFINITY;
+    if (max == Double.POSITIVE_INFINITY)
+      return Double.POSITIVE_INFINITY;
+
+    double sum = 0d;
+    for (int i = 0; i < n; i++) {
+      sum += Math.exp(logWeights[i] - max);
+    }
+    return max + Math.log(sum);
+  }
+
+  /**
+   * Writes the normalized probabilities of the log weights into probs.
+   *
+   * @return the log of the normalizing constant, or negative infinity, in
+   *         which case probs is untouched.
+   */
+  public static double normalize(double[] logWeights, int n,
+    double[] probs) {
+    final double logTotal = logSumExp(logWeights, n);
+    if (logTotal == Double.NEGATIVE_INFINITY)
+      return logTotal;
+    for (int i = 0; i < n; i++) {
+      probs[i] = Math.exp(logWeights[i] - logTotal);
+    }
+    return logTotal;
+  }
+
+  /**
+   * Samples an index from cumulative probabilities, by binary search.
+   * Zero-probability entries are never chosen, and the total doesn't need to
+   * be exactly one.
+   */
+  public static int sampleIndex(double[] cumulative, int n, Random rng) {
+    Preconditions.checkArgument(n > 0);
+    final double u = rng.nextDouble() * cumulative[n - 1];
+    int lo = 0;
+    int hi = n - 1;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (cumulative[mid] > u)
+        hi = mid;
+      else
+        lo = mid + 1;
+    }
+    return lo;
+  }
+
+}
@@ -6,8 +6,6 @@ import gov.sandia.cognition.math.matrix.MatrixFactory;
 import gov.sandia.cognition.math.matrix.Vector;
 import gov.sandia.cognition.math.matrix.VectorFactory;
 import gov.sandia.cognition.math.matrix.mtj.DenseMatrix;
-import gov.sandia.cognition.math.matrix.mtj.DenseMatrixFactoryMTJ;
-import gov.sandia.cognition.math.matrix.mtj.decomposition.CholeskyDecompositionMTJ;
 import gov.sandia.cognition.math.matrix.mtj.decomposition.EigenDecompositionRightMTJ;
 import gov.sandia.cognition.math.signals.LinearDynamicalSystem;
 import gov.sandia.cognition.statistics.distribution.MultivariateGaussian;
@@ -17,19 +15,14 @@ import java.util.Map.Entry;
 import java.util.Random;
 
 import org.openplans.tools.tracking.impl.graph.InferredEdge;
+import org.openplans.tools.tracking.impl.graph.SegmentTable;
 import org.openplans.tools.tracking.impl.graph.paths.InferredPath;
 import org.openplans.tools.tracking.impl.graph.paths.PathEdge;
-import org.openplans.tools.tracking.impl.util.GeoUtils;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineSegment;
-import com.vividsolutions.jts.linearref.LengthIndexedLine;
-import com.vividsolutions.jts.linearref.LengthLocationMap;
-import com.vividsolutions.jts.linearref.LinearLocation;
-import com.vividsolutions.jts.linearref.LocationIndexedLine;
 
 public class StandardRoadTrackingFilter implements
     CloneableSerializable {
@@ -89,18 +82,17 @@ public class StandardRoadTrackingFilter implements
      */
     final LinearDynamicalSystem roadModel = new LinearDynamicalSystem(
         0, 2);
-    final Matrix roadG = createStateTransitionMatrix(
-        currentTimeDiff, true);
-    roadModel.setA(roadG);
+    this.Qr = MatrixFactory.getDefault().createDiagonal(
+        onRoadStateVariance);
+    this.roadEntry = StateTransitionCache.getEntry(
+        currentTimeDiff, true, Qr);
+    roadModel.setA(roadEntry.getTransition());
     roadModel.setB(MatrixFactory.getDefault().createIdentity(2, 2));
     roadModel.setC(Or);
     this.roadModel = roadModel;
 
-    this.Qr = MatrixFactory.getDefault().createDiagonal(
-        onRoadStateVariance);
     this.roadFilter = new AdjKalmanFilter(
-        roadModel, createStateCovarianceMatrix(1d, Qr, true),
-        this.obsVariance);
+        roadModel, roadEntry.getStateCovariance(), this.obsVariance);
 
     /*
      * Create the ground-coordinates filter
@@ -108,19 +100,19 @@ public class StandardRoadTrackingFilter implements
     final LinearDynamicalSystem groundModel = new LinearDynamicalSystem(
         0, 4);
 
-    final Matrix groundGct = createStateTransitionMatrix(
-        currentTimeDiff, false);
+    this.Qg = MatrixFactory.getDefault().createDiagonal(
+        offRoadStateVariance);
+    this.groundEntry = StateTransitionCache.getEntry(
+        currentTimeDiff, false, Qg);
 
-    groundModel.setA(groundGct);
+    groundModel.setA(groundEntry.getTransition());
     groundModel.setB(MatrixFactory.getDefault().createIdentity(4, 4));
     groundModel.setC(Og);
 
     this.groundModel = groundModel;
 
-    this.Qg = MatrixFactory.getDefault().createDiagonal(
-        offRoadStateVariance);
     this.groundFilter = new AdjKalmanFilter(
-        groundModel, createStateCovarianceMatrix(1d, Qg, false),
+        groundModel, groundEntry.getStateCovariance(),
         this.obsVariance);
 
   }
@@ -144,6 +136,12 @@ public class StandardRoadTrackingFilter implements
 
   private double prevTimeDiff = 1d;
 
+  /*
+   * Shared model matrices and noise factors for the current time step.
+   */
+  private StateTransitionCache.Entry groundEntry;
+  private StateTransitionCache.Entry roadEntry;
+
   private final static Vector zeros2D = VectorFactory.getDefault()
       .copyValues(0, 0);
 
@@ -162,7 +160,7 @@ public class StandardRoadTrackingFilter implements
 
   public MultivariateGaussian createInitialLearnedObject() {
     return new MultivariateGaussian(groundFilter.getModel()
-        .getState(), groundFilter.getModelCovariance());
+        .getState(), groundFilter.getModelCovariance().clone());
   }
 
   public Matrix getCovarianceFactor(boolean isRoad) {
@@ -173,6 +171,22 @@ public class StandardRoadTrackingFilter implements
     return currentTimeDiff;
   }
 
+  /**
+   * Ground-coordinates mean and covariance of the belief, as arrays.
+   */
+  private void getGroundArrays(MultivariateGaussian belief,
+    PathEdge edge, double[] mean, double[] cov) {
+    if (belief.getInputDimensionality() == 2) {
+      final MultivariateGaussian projBelief = belief.clone();
+      convertToGroundBelief(projBelief, edge);
+      KalmanKernels.copyToArray(projBelief.getMean(), mean);
+      KalmanKernels.copyToArray(projBelief.getCovariance(), cov);
+    } else {
+      KalmanKernels.copyToArray(belief.getMean(), mean);
+      KalmanKernels.copyToArray(belief.getCovariance(), cov);
+    }
+  }
+
   public AdjKalmanFilter getGroundFilter() {
     return groundFilter;
   }
@@ -181,19 +195,32 @@ public class StandardRoadTrackingFilter implements
     return groundModel;
   }
 
+  private double[] getMeasurementArray() {
+    final double[] obsCov = new double[4];
+    KalmanKernels.copyToArray(
+        this.groundFilter.getMeasurementCovariance(), obsCov);
+    return obsCov;
+  }
+
   public MultivariateGaussian getObservationBelief(
     final MultivariateGaussian belief, PathEdge edge) {
-    final MultivariateGaussian projBelief = belief.clone();
-    if (projBelief.getInputDimensionality() == 2) {
-      convertToGroundBelief(projBelief, edge);
-    }
-
-    final Matrix Q = Og.times(projBelief.getCovariance()).times(
-        Og.transpose());
-    Q.plusEquals(this.groundFilter.getMeasurementCovariance());
-
+    final double[] mean = new double[4];
+    final double[] cov = new double[16];
+    getGroundArrays(belief, edge, mean, cov);
+
+    final double[] obsMean = new double[2];
+    final double[] obsCov = new double[4];
+    KalmanKernels.projectGround(mean, cov, getMeasurementArray(),
+        obsMean, obsCov);
+
+    final Matrix Q = MatrixFactory.getDefault().createMatrix(2, 2);
+    Q.setElement(0, 0, obsCov[0]);
+    Q.setElement(0, 1, obsCov[1]);
+    Q.setElement(1, 0, obsCov[2]);
+    Q.setElement(1, 1, obsCov[3]);
     final MultivariateGaussian res = new MultivariateGaussian(
-        Og.times(projBelief.getMean()), Q);
+        VectorFactory.getDefault().copyValues(obsMean[0], obsMean[1]),
+        Q);
     return res;
   }
 
@@ -242,17 +269,13 @@ public class StandardRoadTrackingFilter implements
    */
   public double logLikelihood(Vector obs,
     MultivariateGaussian belief, PathEdge edge) {
-    final MultivariateGaussian projBelief = belief.clone();
-    if (projBelief.getInputDimensionality() == 2) {
-      convertToGroundBelief(projBelief, edge);
-    }
+    final double[] mean = new double[4];
+    final double[] cov = new double[16];
+    getGroundArrays(belief, edge, mean, cov);
 
-    final Matrix Q = Og.times(projBelief.getCovariance()).times(
-        Og.transpose());
-    Q.plusEquals(this.groundFilter.getMeasurementCovariance());
-
-    final double result = StatisticsUtil.logEvaluateNormal(
-        obs, Og.times(projBelief.getMean()), Q);
+    final double result = KalmanKernels.groundLogLikelihood(
+        obs.getElement(0), obs.getElement(1), mean, cov,
+        getMeasurementArray());
     return result;
   }
 
@@ -289,7 +312,7 @@ public class StandardRoadTrackingFilter implements
       //
       // final Matrix C = R.minus(A.times(Q.transpose()).times(A.transpose()));
       // final Vector m = a.plus(A.times(e));
-      this.groundFilter.measure(updatedBelief, observation);
+      measureGround(updatedBelief, observation);
 
       /*
        * Convert back to road-coordinates
@@ -300,7 +323,7 @@ public class StandardRoadTrackingFilter implements
     } else {
       Preconditions
           .checkArgument(belief.getInputDimensionality() == 4);
-      this.groundFilter.measure(belief, observation);
+      measureGround(belief, observation);
     }
 
   }
@@ -325,14 +348,14 @@ public class StandardRoadTrackingFilter implements
         /*-
          * Predict free-movement
          */
-        groundFilter.predict(currentBelief);
+        predictGround(currentBelief);
       } else {
         /*-
          * Going off-road
          */
         Preconditions.checkNotNull(currentEdge);
         convertToGroundBelief(currentBelief, currentEdge);
-        groundFilter.predict(currentBelief);
+        predictGround(currentBelief);
       }
     } else {
       Preconditions.checkNotNull(currentEdge);
@@ -351,11 +374,45 @@ public class StandardRoadTrackingFilter implements
             currentBelief, InferredPath.getInferredPath(newEdge));
       } else {
       }
-      roadFilter.predict(currentBelief);
+      predictRoad(currentBelief);
     }
 
   }
 
+  private void measureGround(MultivariateGaussian belief,
+    Vector observation) {
+    final double[] mean = new double[4];
+    final double[] cov = new double[16];
+    KalmanKernels.copyToArray(belief.getMean(), mean);
+    KalmanKernels.copyToArray(belief.getCovariance(), cov);
+    KalmanKernels.updateGround(mean, cov, observation.getElement(0),
+        observation.getElement(1), getMeasurementArray());
+    KalmanKernels.setBelief(belief, mean, cov);
+  }
+
+  private void predictGround(MultivariateGaussian belief) {
+    final double[] mean = new double[4];
+    final double[] cov = new double[16];
+    final double[] modelCov = new double[16];
+    KalmanKernels.copyToArray(belief.getMean(), mean);
+    KalmanKernels.copyToArray(belief.getCovariance(), cov);
+    KalmanKernels.copyToArray(groundFilter.getModelCovariance(),
+        modelCov);
+    KalmanKernels.predict4D(mean, cov, currentTimeDiff, modelCov);
+    KalmanKernels.setBelief(belief, mean, cov);
+  }
+
+  private void predictRoad(MultivariateGaussian belief) {
+    final double[] mean = new double[2];
+    final double[] cov = new double[4];
+    final double[] modelCov = new double[4];
+    KalmanKernels.copyToArray(belief.getMean(), mean);
+    KalmanKernels.copyToArray(belief.getCovariance(), cov);
+    KalmanKernels.copyToArray(roadFilter.getModelCovariance(), modelCov);
+    KalmanKernels.predict2D(mean, cov, currentTimeDiff, modelCov);
+    KalmanKernels.setBelief(belief, mean, cov);
+  }
+
   /**
    * Use this sampling method to beat the inherent degeneracy of our state
    * covariance.
@@ -365,29 +422,19 @@ public class StandardRoadTrackingFilter implements
    */
   public Vector sampleStateBelief(Vector mean, Random rng) {
     final boolean isRoad = mean.getDimensionality() == 2;
-    final Matrix Q = isRoad ? this.getQr() : this.getQg();
-
-    final Matrix covSqrt = CholeskyDecompositionMTJ.create(
-        DenseMatrixFactoryMTJ.INSTANCE.copyMatrix(Q)).getR();
-    final Vector underlyingSample = MultivariateGaussian.sample(
-        VectorFactory.getDefault().createVector(2), covSqrt, rng);
-    final Matrix Gamma = this.getCovarianceFactor(isRoad);
-    final Vector thisStateSample = Gamma.times(underlyingSample)
-        .plus(mean);
-    return thisStateSample;
+    return sampleStateBelief(mean, rng, isRoad ? roadEntry : groundEntry);
   }
 
   public void setCurrentTimeDiff(double currentTimeDiff) {
-    if (currentTimeDiff != prevTimeDiff) {
-      groundFilter.setModelCovariance(createStateCovarianceMatrix(
-          currentTimeDiff, Qg, false));
-      roadFilter.setModelCovariance(createStateCovarianceMatrix(
-          currentTimeDiff, Qr, true));
-
-      groundModel.setA(createStateTransitionMatrix(
-          currentTimeDiff, false));
-      roadModel.setA(createStateTransitionMatrix(
-          currentTimeDiff, true));
+    if (currentTimeDiff != this.currentTimeDiff) {
+      groundEntry = StateTransitionCache.getEntry(
+          currentTimeDiff, false, Qg);
+      roadEntry = StateTransitionCache.getEntry(currentTimeDiff, true, Qr);
+      groundFilter.setModelCovariance(groundEntry.getStateCovariance());
+      roadFilter.setModelCovariance(roadEntry.getStateCovariance());
+
+      groundModel.setA(groundEntry.getTransition());
+      roadModel.setA(roadEntry.getTransition());
     }
     this.prevTimeDiff = this.currentTimeDiff;
     this.currentTimeDiff = currentTimeDiff;
@@ -429,79 +476,77 @@ public class StandardRoadTrackingFilter implements
 
     Preconditions.checkArgument(!edge.isEmptyEdge());
 
-    final Vector positiveMean;
-    if (belief.getMean().getElement(0) < 0d) {
+    final Vector mean = belief.getMean();
+    double positiveLocation;
+    if (mean.getElement(0) < 0d) {
       /*
        * We're going all positive here, since we should've been using
        * the reversed geometry if negative.
        */
-      final Vector posMeanTmp = belief.getMean().clone();
-
-      double posLocation = Math.max(
-          0d,
-          belief.getMean().getElement(0)
-              + edge.getInferredEdge().getLength()
-              + Math.abs(edge.getDistToStartOfEdge()));
+      positiveLocation = Math.max(0d, mean.getElement(0)
+          + edge.getInferredEdge().getLength()
+          + Math.abs(edge.getDistToStartOfEdge()));
 
       /*
        * In cases where large negative movements past an edge are made,
        * we need to adjust the excess to be positive.
        */
-      if (allowExtensions && posLocation < 0d) {
-        posLocation = edge.getInferredEdge().getLength()
-            + Math.abs(belief.getMean().getElement(0));
+      if (allowExtensions && positiveLocation < 0d) {
+        positiveLocation = edge.getInferredEdge().getLength()
+            + Math.abs(mean.getElement(0));
       }
-
-      posMeanTmp.setElement(0, posLocation);
-      positiveMean = posMeanTmp;
     } else {
-      positiveMean = belief.getMean().clone();
-
       assert edge.getDistToStartOfEdge() >= 0d;
 
-      positiveMean
-          .setElement(
-              0,
-              positiveMean.getElement(0)
-                  - edge.getDistToStartOfEdge());
+      positiveLocation = mean.getElement(0)
+          - edge.getDistToStartOfEdge();
     }
 
-    assert positiveMean.getElement(0) >= 0d
-        && (allowExtensions || positiveMean.getElement(0) <= edge
+    assert positiveLocation >= 0d
+        && (allowExtensions || positiveLocation <= edge
             .getInferredEdge().getLength() + 1e-4);
 
-    final Entry<LineSegment, Double> segmentDist = getSegmentAndDistanceToStart(
-        edge.getInferredEdge(), positiveMean.getElement(0));
-    final double absTotalPathDistanceToStartOfSegment = Math
-        .abs(segmentDist.getValue());
+    final SegmentTable segments = edge.getInferredEdge()
+        .getSegmentTable();
+    final int segment = segments.findSegment(positiveLocation);
+    final double absTotalPathDistanceToStartOfSegment = segments
+        .getDistanceToStart(segment);
     final double absTotalPathDistanceToEndOfSegment = absTotalPathDistanceToStartOfSegment
-        + segmentDist.getKey().getLength();
-    final Entry<Matrix, Vector> projPair = StandardRoadTrackingFilter
-        .posVelProjectionPair(
-            segmentDist.getKey(),
-            absTotalPathDistanceToStartOfSegment);
+        + segments.getSegmentLength(segment);
 
     if (!allowExtensions) {
-      //    assert (Math.abs(belief.getMean().getElement(0)) <= absTotalPathDistanceToEndOfSegment 
-      //        && Math.abs(belief.getMean().getElement(0)) >= absTotalPathDistanceToStartOfSegment);
-
       /*
        * Truncate, to keep it on the edge.
        */
-      if (positiveMean.getElement(0) > absTotalPathDistanceToEndOfSegment) {
-        positiveMean
-            .setElement(0, absTotalPathDistanceToEndOfSegment);
-      } else if (positiveMean.getElement(0) < absTotalPathDistanceToStartOfSegment) {
-        positiveMean.setElement(
-            0, absTotalPathDistanceToStartOfSegment);
+      if (positiveLocation > absTotalPathDistanceToEndOfSegment) {
+        positiveLocation = absTotalPathDistanceToEndOfSegment;
+      } else if (positiveLocation < absTotalPathDistanceToStartOfSegment) {
+        positiveLocation = absTotalPathDistanceToStartOfSegment;
       }
     }
 
+    /*
+     * Project onto the segment direction P1.  In matrix form this is
+     * U*P*m + U*a, with P = [P1 0; 0 P1] and a = [s1; 0].
+     */
+    final double p1x = segments.getDirectionX(segment);
+    final double p1y = segments.getDirectionY(segment);
+    final double offset = positiveLocation
+        - absTotalPathDistanceToStartOfSegment;
+    final double velocity = mean.getElement(1);
+    final Vector projMean = VectorFactory.getDefault().copyValues(
+        segments.getStartX(segment) + p1x * offset, p1x * velocity,
+        segments.getStartY(segment) + p1y * offset, p1y * velocity);
+
     final Matrix C = belief.getCovariance();
-    final Vector projMean = projPair.getKey().times(positiveMean)
-        .plus(projPair.getValue());
-    final Matrix projCov = projPair.getKey().times(C)
-        .times(projPair.getKey().transpose());
+    final double[] scale = { p1x, p1x, p1y, p1y };
+    final Matrix projCov = MatrixFactory.getDefault().createMatrix(4, 4);
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        projCov.setElement(i, j,
+            scale[i] * scale[j] * C.getElement(i % 2, j % 2));
+      }
+    }
 
     belief.setMean(projMean);
     belief.setCovariance(projCov);
@@ -519,77 +564,49 @@ public class StandardRoadTrackingFilter implements
 
     Preconditions.checkArgument(!path.isEmptyPath());
 
-    final Vector m = belief.getMean().clone();
-    final Matrix C = belief.getCovariance().clone();
+    final Vector m = belief.getMean();
+    final Matrix C = belief.getCovariance();
 
     /*
-     * We snap to the line and find the segment of interest.
+     * We snap to the line and find the segment of interest, along with
+     * the distance offset of the path.
      */
-    final Coordinate currentPos = GeoUtils
-        .makeCoordinate(Og.times(m));
-    final LocationIndexedLine locIndex = new LocationIndexedLine(
-        path.getGeometry());
-    final LinearLocation lineLocation = locIndex.project(currentPos);
-
-    // TODO necessary?
-    final Coordinate pointOnLine = lineLocation.getCoordinate(path
-        .getGeometry());
-    m.setElement(0, pointOnLine.x);
-    m.setElement(2, pointOnLine.y);
+    final SegmentTable segments = path.getSegmentTable();
+    final double x = m.getElement(0);
+    final double y = m.getElement(2);
+    final int segment = segments.nearestSegment(x, y);
+    final double p1x = segments.getDirectionX(segment);
+    final double p1y = segments.getDirectionY(segment);
 
     /*
-     * Get the segment we're projected onto, and the distance offset
-     * of the path.
+     * This is (U*P)^T * (m - U*a) for the segment's projection pair,
+     * with the location taken at the snapped point.
      */
-    final LineSegment lineSegment = lineLocation.getSegment(path
-        .getGeometry());
-    final LengthIndexedLine lengthIndex = new LengthIndexedLine(
-        path.getGeometry());
-    final double distanceToStartOfSegmentOnGeometry = lengthIndex
-        .indexOf(lineSegment.p0);
-
-    final Entry<Matrix, Vector> projPair = StandardRoadTrackingFilter
-        .posVelProjectionPair(
-            lineSegment, distanceToStartOfSegmentOnGeometry);
-
-    final Vector projMean = projPair.getKey().transpose()
-        .times(m.minus(projPair.getValue()));
-
-    if (path.isBackward())
-      projMean.setElement(0, -1d * projMean.getElement(0));
+    final double location = segments.distanceAlong(segment, x, y);
+    final Vector projMean = VectorFactory.getDefault().copyValues(
+        path.isBackward() ? -location : location,
+        p1x * m.getElement(1) + p1y * m.getElement(3));
 
     normalizeBelief(
         projMean,
         path.getEdgeForDistance(projMean.getElement(0), true));
 
-    final Matrix projCov = projPair.getKey().transpose().times(C)
-        .times(projPair.getKey());
+    final Matrix projCov = MatrixFactory.getDefault().createMatrix(2, 2);
+    for (int i = 0; i < 2; i++) {
+      for (int j = 0; j < 2; j++) {
+        projCov.setElement(i, j,
+            p1x * p1x * C.getElement(i, j)
+            + p1x * p1y * C.getElement(i, j + 2)
+            + p1y * p1x * C.getElement(i + 2, j)
+            + p1y * p1y * C.getElement(i + 2, j + 2));
+      }
+    }
 
     belief.setMean(projMean);
     belief.setCovariance(projCov);
   }
 
-  /**
-   * Creates either a diagonal matrix with diag = xa0Variance, yaVariance, or
-   * the aforementioned matrix rotated by the x-axis angle angle, with
-   * xa0Variance, yaVariance the perpendicular, parallel variances.
-   * 
-   * @param timeDiff
-   * @param yaVariance
-   * @param xa0Variance
-   * @param angle
-   * @return
-   */
-  private static Matrix createStateCovarianceMatrix(double timeDiff,
-    Matrix Q, boolean isRoad) {
-
-    final Matrix A_half = getCovarianceFactor(timeDiff, isRoad);
-    final Matrix A = A_half.times(Q).times(A_half.transpose());
-
-    return A;
-  }
-
-  private static Matrix createStateTransitionMatrix(double timeDiff,
+  static Matrix createStateTransitionMatrix(double timeDiff,
     boolean isRoad) {
 
     final int dim;
@@ -675,22 +692,15 @@ public class StandardRoadTrackingFilter implements
     InferredEdge edge, double distAlongGeometry) {
 
     Preconditions.checkArgument(distAlongGeometry >= 0d);
-    final Geometry geometry = edge.getGeometry();
-    final LengthIndexedLine lengthIdxLine = edge
-        .getLengthIndexedLine();
-
-    final LinearLocation lineLocation = LengthLocationMap
-        .getLocation(geometry, distAlongGeometry);
-    final LineSegment lineSegment = lineLocation.getSegment(geometry);
-    final Coordinate startOfSegmentCoord = lineSegment.p0;
-    final double positiveDistToStartOfSegmentOnGeometry = lengthIdxLine
-        .indexOf(startOfSegmentCoord);
-
-    double distanceToStartOfSegmentOnPath;
-    distanceToStartOfSegmentOnPath = positiveDistToStartOfSegmentOnGeometry;
+    final SegmentTable segments = edge.getSegmentTable();
+    final int segment = segments.findSegment(distAlongGeometry);
+    final LineSegment lineSegment = new LineSegment(new Coordinate(
+        segments.getStartX(segment), segments.getStartY(segment)),
+        new Coordinate(segments.getEndX(segment), segments
+            .getEndY(segment)));
 
     return Maps.immutableEntry(
-        lineSegment, distanceToStartOfSegmentOnPath);
+        lineSegment, segments.getDistanceToStart(segment));
   }
 
   public static long getSerialversionuid() {
@@ -772,34 +782,6 @@ public class StandardRoadTrackingFilter implements
     }
   }
 
-  /**
-   * TODO FIXME associate these values with segments? Returns the matrix and
-   * offset vector for projection onto the given edge. distEnd is the distance
-   * from the start of the path to the end of the given edge. NOTE: These
-   * results are only in the positive direction. Convert on your end.
-   */
-  static private Entry<Matrix, Vector> posVelProjectionPair(
-    LineSegment lineSegment, double distToStartOfLine) {
-
-    final Vector start = GeoUtils.getVector(lineSegment.p0);
-    final Vector end = GeoUtils.getVector(lineSegment.p1);
-
-    final double length = start.euclideanDistance(end);
-
-    final double distToStart = Math.abs(distToStartOfLine);
-
-    final Vector P1 = end.minus(start).scale(1 / length);
-    final Vector s1 = start.minus(P1.scale(distToStart));
-
-    final Matrix P = MatrixFactory.getDefault().createMatrix(4, 2);
-    P.setColumn(0, P1.stack(zeros2D));
-    P.setColumn(1, zeros2D.stack(P1));
-
-    final Vector a = s1.stack(zeros2D);
-
-    return Maps.immutableEntry(U.times(P), U.times(a));
-  }
-
   /**
    * Use this sampling method to beat the inherent degeneracy of our state
    * covariance.
@@ -809,16 +791,15 @@ public class StandardRoadTrackingFilter implements
    */
   public static Vector sampleMovementBelief(Random rng, Vector mean,
     StandardRoadTrackingFilter filter) {
-    final boolean isRoad = mean.getDimensionality() == 2;
-    final Matrix Q = isRoad ? filter.getQr() : filter.getQg();
+    return filter.sampleStateBelief(mean, rng);
+  }
 
-    final Matrix covSqrt = CholeskyDecompositionMTJ.create(
-        DenseMatrixFactoryMTJ.INSTANCE.copyMatrix(Q)).getR();
+  private static Vector sampleStateBelief(Vector mean, Random rng,
+    StateTransitionCache.Entry entry) {
     final Vector underlyingSample = MultivariateGaussian.sample(
-        VectorFactory.getDefault().createVector(2), covSqrt, rng);
-    final Matrix Gamma = filter.getCovarianceFactor(isRoad);
-    final Vector thisStateSample = Gamma.times(underlyingSample)
-        .plus(mean);
+        zeros2D, entry.getNoiseCovarianceSqrt(), rng);
+    final Vector thisStateSample = entry.getCovarianceFactor()
+        .times(underlyingSample).plus(mean);
     return thisStateSample;
   }
 
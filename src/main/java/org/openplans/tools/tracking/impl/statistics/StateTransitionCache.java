@@ -0,0 +1,179 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import gov.sandia.cognition.math.matrix.Matrix;
+import gov.sandia.cognition.math.matrix.MatrixFactory;
+import gov.sandia.cognition.math.matrix.mtj.DenseMatrixFactoryMTJ;
+import gov.sandia.cognition.math.matrix.mtj.decomposition.CholeskyDecompositionMTJ;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Shared cache of the constant-velocity model matrices for a time step and
+ * state noise covariance. GPS feeds report at a handful of fixed intervals,
+ * so every particle and vehicle ends up asking for the same few entries. <br>
+ * The matrices in an entry are shared between all filters and must not be
+ * modified.
+ */
+public class StateTransitionCache {
+
+  /**
+   * Model matrices for one time step: the transition G, the noise factor
+   * Gamma, the state covariance Gamma Q Gamma^T and its factor Gamma R^T,
+   * where Q = R^T R is the Cholesky decomposition of the noise covariance.
+   * The state covariance is rank-deficient, so the latter takes the place of
+   * its Cholesky factor when sampling.
+   */
+  public static class Entry {
+
+    private final Matrix transition;
+    private final Matrix covarianceFactor;
+    private final Matrix stateCovariance;
+    private final Matrix stateCovarianceFactor;
+    private final Matrix noiseCovarianceSqrt;
+
+    private Entry(Key key) {
+      final Matrix noiseCovariance = key.getNoiseCovariance();
+      this.transition = StandardRoadTrackingFilter
+          .createStateTransitionMatrix(key.timeDiff, key.isRoad);
+      this.covarianceFactor = StandardRoadTrackingFilter
+          .getCovarianceFactor(key.timeDiff, key.isRoad);
+      this.stateCovariance = covarianceFactor.times(noiseCovariance)
+          .times(covarianceFactor.transpose());
+      this.noiseCovarianceSqrt = CholeskyDecompositionMTJ.create(
+          DenseMatrixFactoryMTJ.INSTANCE.copyMatrix(noiseCovariance))
+          .getR();
+      this.stateCovarianceFactor = covarianceFactor
+          .times(noiseCovarianceSqrt.transpose());
+    }
+
+    /**
+     * Gamma, which maps the noise onto the state.
+     */
+    public Matrix getCovarianceFactor() {
+      return covarianceFactor;
+    }
+
+    /**
+     * The upper Cholesky factor R of the noise covariance Q = R^T R.
+     */
+    public Matrix getNoiseCovarianceSqrt() {
+      return noiseCovarianceSqrt;
+    }
+
+    public Matrix getStateCovariance() {
+      return stateCovariance;
+    }
+
+    /**
+     * Gamma R^T, whose outer product is the state covariance.
+     */
+    public Matrix getStateCovarianceFactor() {
+      return stateCovarianceFactor;
+    }
+
+    public Matrix getTransition() {
+      return transition;
+    }
+
+  }
+
+  private static class Key {
+
+    private final double timeDiff;
+    private final boolean isRoad;
+    private final int noiseDim;
+    private final double[] noiseValues;
+
+    public Key(double timeDiff, boolean isRoad, Matrix noiseCovariance) {
+      Preconditions.checkArgument(noiseCovariance.isSquare());
+      this.timeDiff = timeDiff;
+      this.isRoad = isRoad;
+      this.noiseDim = noiseCovariance.getNumRows();
+      this.noiseValues = new double[noiseDim * noiseDim];
+      for (int i = 0; i < noiseDim; i++) {
+        for (int j = 0; j < noiseDim; j++) {
+          noiseValues[i * noiseDim + j] = noiseCovariance.getElement(i, j);
+        }
+      }
+    }
+
+    public Matrix getNoiseCovariance() {
+      final Matrix noiseCovariance = MatrixFactory.getDefault()
+          .createMatrix(noiseDim, noiseDim);
+      for (int i = 0; i < noiseDim; i++) {
+        for (int j = 0; j < noiseDim; j++) {
+          noiseCovariance.setElement(i, j, noiseValues[i * noiseDim + j]);
+        }
+      }
+      return noiseCovariance;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null) {
+        return false;
+      }
+      if (getClass() != obj.getClass()) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      if (isRoad != other.isRoad) {
+        return false;
+      }
+      if (Double.doubleToLongBits(timeDiff) != Double
+          .doubleToLongBits(other.timeDiff)) {
+        return false;
+      }
+      if (noiseDim != other.noiseDim) {
+        return false;
+      }
+      if (!Arrays.equals(noiseValues, other.noiseValues)) {
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + (isRoad ? 1231 : 1237);
+      final long temp = Double.doubleToLongBits(timeDiff);
+      result = prime * result + (int) (temp ^ (temp >>> 32));
+      result = prime * result + noiseDim;
+      result = prime * result + Arrays.hashCode(noiseValues);
+      return result;
+    }
+
+  }
+
+  private static final LoadingCache<Key, Entry> entries = CacheBuilder
+      .newBuilder().maximumSize(256).build(new CacheLoader<Key, Entry>() {
+        @Override
+        public Entry load(Key key) {
+          return new Entry(key);
+        }
+      });
+
+  private StateTransitionCache() {
+  }
+
+  /**
+   * Returns the shared entry for the time step, road/ground model and state
+   * noise covariance.
+   */
+  public static Entry getEntry(double timeDiff, boolean isRoad,
+    Matrix noiseCovariance) {
+    return entries.getUnchecked(new Key(
+        timeDiff, isRoad, noiseCovariance));
+  }
+
+}
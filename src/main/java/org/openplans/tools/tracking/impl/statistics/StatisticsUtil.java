@@ -79,12 +79,11 @@ public class StatisticsUtil {
     /*-
      * Normalize to avoid zero probs.
      */
-    double totalLikelihood = Double.NEGATIVE_INFINITY;
-    for (final WrappedWeightedValue<SupportType> weight : map) {
-      totalLikelihood = LogMath.add(
-          weight.getWeight(), totalLikelihood);
-      assert !Double.isNaN(totalLikelihood);
-    }
+    final double[] logWeights = new double[map.size()];
+    LogWeights.copyWeights(map, logWeights);
+    final double totalLikelihood = LogWeights.logSumExp(
+        logWeights, logWeights.length);
+    assert !Double.isNaN(totalLikelihood);
 
     if (totalLikelihood == Double.NEGATIVE_INFINITY)
       return null;
@@ -105,12 +104,12 @@ public class StatisticsUtil {
     //
     // });
 
-    for (final WrappedWeightedValue<SupportType> entry : map) {
-      if (entry.getWeight() == Double.NEGATIVE_INFINITY
-          || totalLikelihood == Double.NEGATIVE_INFINITY)
+    for (int i = 0; i < logWeights.length; i++) {
+      if (logWeights[i] == Double.NEGATIVE_INFINITY)
         continue;
-      final double weight = entry.getWeight() - totalLikelihood;
-      result.set(entry.getValue(), Math.exp(weight), entry.getCount());
+      final WrappedWeightedValue<SupportType> entry = map.get(i);
+      result.set(entry.getValue(),
+          Math.exp(logWeights[i] - totalLikelihood), entry.getCount());
     }
 
     return result;
@@ -122,12 +121,14 @@ public class StatisticsUtil {
     /*-
      * Normalize to avoid zero probs.
      */
-    double totalLikelihood = Double.NEGATIVE_INFINITY;
+    final double[] logWeights = new double[map.size()];
+    int i = 0;
     for (final WrappedWeightedValue<DistributionType> weight : map
         .values()) {
-      totalLikelihood = LogMath.add(
-          weight.getWeight(), totalLikelihood);
+      logWeights[i++] = weight.getWeight();
     }
+    final double totalLikelihood = LogWeights.logSumExp(
+        logWeights, logWeights.length);
 
     if (totalLikelihood == Double.NEGATIVE_INFINITY)
       return null;
@@ -217,6 +218,16 @@ public class StatisticsUtil {
     Preconditions.checkArgument(input.getDimensionality() == mean
         .getDimensionality());
     final int k = mean.getDimensionality();
+    if (k == 1) {
+      return logEvaluateNormal(input.getElement(0), mean.getElement(0),
+          cov.getElement(0, 0));
+    } else if (k == 2) {
+      return logEvaluateNormal(input.getElement(0),
+          input.getElement(1), mean.getElement(0),
+          mean.getElement(1), cov.getElement(0, 0),
+          cov.getElement(0, 1), cov.getElement(1, 1));
+    }
+
     final double logLeadingCoefficient = (-0.5 * k * MultivariateGaussian.LOG_TWO_PI)
         + (-0.5 * cov.logDeterminant().getRealPart());
 
@@ -234,6 +245,33 @@ public class StatisticsUtil {
     return logLeadingCoefficient - 0.5 * zsquared;
   }
 
+  /**
+   * Univariate normal log-density.
+   */
+  public static double logEvaluateNormal(double input, double mean,
+    double variance) {
+    final double delta = input - mean;
+    return -0.5d * (MultivariateGaussian.LOG_TWO_PI + Math.log(variance))
+        - 0.5d * delta * delta / variance;
+  }
+
+  /**
+   * Bivariate normal log-density at (x, y), with mean (meanX, meanY) and
+   * covariance [varX covXY; covXY varY]. The determinant and inverse are
+   * computed in closed form, and nothing is allocated.
+   */
+  public static double logEvaluateNormal(double x, double y,
+    double meanX, double meanY, double varX, double covXY, double varY) {
+    final double det = varX * varY - covXY * covXY;
+    final double dx = x - meanX;
+    final double dy = y - meanY;
+    final double zsquared = (varY * dx * dx - 2d * covXY * dx * dy + varX
+        * dy * dy)
+        / det;
+    return -MultivariateGaussian.LOG_TWO_PI - 0.5d * Math.log(det) - 0.5d
+        * zsquared;
+  }
+
   /**
    * Taken from NormalDistribution.java Copyright (C) 2002-2006 Alexei Drummond
    * and Andrew Rambaut
@@ -9,7 +9,6 @@ import gov.sandia.cognition.statistics.distribution.MultivariateGaussian;
 import gov.sandia.cognition.util.DefaultPair;
 import gov.sandia.cognition.util.Pair;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -58,6 +57,11 @@ public class VehicleTrackingPLFilter extends
 
   private final Observation initialObservation;
 
+  /*
+   * Scratch distribution for the propagated states, reused between updates.
+   */
+  private final LogDefaultDataDistribution<VehicleState> posteriorDist = new LogDefaultDataDistribution<VehicleState>();
+
   public VehicleTrackingPLFilter(Observation obs,
     OtpGraph inferredGraph, VehicleStateInitialParameters parameters,
     boolean isDebug) {
@@ -175,18 +179,35 @@ public class VehicleTrackingPLFilter extends
 
     final Random rng = getRandom();
 
-    final DataDistribution<VehicleState> resampleDist = StatisticsUtil
-        .getLogNormalizedDistribution(resampler);
+    /*
+     * All the resampling draws come from one alias table, so each is O(1).
+     */
+    final AliasSampler stateSampler = AliasSampler.create(resampler);
 
     // TODO low-variance sampling?
-    final ArrayList<? extends VehicleState> smoothedStates = resampleDist
-        .sample(rng, getNumParticles());
+    final List<VehicleState> smoothedStates = Lists
+        .newArrayListWithCapacity(getNumParticles());
+    for (int i = 0; i < getNumParticles(); i++) {
+      smoothedStates.add(resampler.get(stateSampler.sample(rng))
+          .getValue());
+    }
 
     if (isDebug)
       this.filterInfo.put(obs, new FilterInformation(
-          evaluatedPaths, resampleDist));
+          evaluatedPaths, StatisticsUtil
+              .getLogNormalizedDistribution(resampler)));
 
-    final DataDistribution<VehicleState> posteriorDist = new LogDefaultDataDistribution<VehicleState>();
+    posteriorDist.clear();
+    final EdgeSpeedAggregator speedAggregator = inferredGraph
+        .getSpeedAggregator();
+    /*
+     * Resampling leaves duplicate states, so the path and edge samplers are
+     * built once per distinct state and path entry.
+     */
+    final Map<VehicleState, Pair<List<WrappedWeightedValue<InferredPathEntry>>, AliasSampler>> pathSamplers = Maps
+        .newHashMap();
+    final Map<InferredPathEntry, AliasSampler> edgeSamplers = Maps
+        .newIdentityHashMap();
     /*
      * Propagate states
      */
@@ -194,11 +215,17 @@ public class VehicleTrackingPLFilter extends
 
 //      final int count = ((LogDefaultDataDistribution)resampleDist).getCount(state);
       final VehicleState newState = state.clone();
-      final DataDistribution<InferredPathEntry> instStateDist = StatisticsUtil
-          .getLogNormalizedDistribution(Lists
-              .newArrayList(stateToPaths.get(newState)));
-      final InferredPathEntry sampledPathEntry = instStateDist
-          .sample(rng);
+      Pair<List<WrappedWeightedValue<InferredPathEntry>>, AliasSampler> pathSampler = pathSamplers
+          .get(state);
+      if (pathSampler == null) {
+        final List<WrappedWeightedValue<InferredPathEntry>> paths = Lists
+            .newArrayList(stateToPaths.get(state));
+        pathSampler = new DefaultPair<List<WrappedWeightedValue<InferredPathEntry>>, AliasSampler>(
+            paths, AliasSampler.create(paths));
+        pathSamplers.put(state, pathSampler);
+      }
+      final InferredPathEntry sampledPathEntry = pathSampler.getFirst()
+          .get(pathSampler.getSecond().sample(rng)).getValue();
 
       /*-
        * Now, if you need to, propagate/sample a predictive location state. 
@@ -221,12 +248,16 @@ public class VehicleTrackingPLFilter extends
        */
       final Pair<PathEdge, Boolean> directionalSampledEdge;
       if (sampledPathEntry.getPath().getEdges().size() > 1) {
-        final DataDistribution<PathEdge> pathEdgeDist = StatisticsUtil
-            .getLogNormalizedDistribution(sampledPathEntry
-                .getWeightedPathEdges());
+        AliasSampler edgeSampler = edgeSamplers.get(sampledPathEntry);
+        if (edgeSampler == null) {
+          edgeSampler = AliasSampler.create(sampledPathEntry
+              .getWeightedPathEdges());
+          edgeSamplers.put(sampledPathEntry, edgeSampler);
+        }
         directionalSampledEdge = new DefaultPair<PathEdge, Boolean>(
-            pathEdgeDist.sample(rng), sampledPathEntry.getPath()
-                .isBackward());
+            sampledPathEntry.getWeightedPathEdges()
+                .get(edgeSampler.sample(rng)).getValue(),
+            sampledPathEntry.getPath().isBackward());
       } else {
         directionalSampledEdge = new DefaultPair<PathEdge, Boolean>(
             sampledPathEntry.getPath().getEdges().get(0),
@@ -272,12 +303,11 @@ public class VehicleTrackingPLFilter extends
               prevEdge, edge.getInferredEdge());
 
         if (!edge.isEmptyEdge()) {
-          edge
-              .getInferredEdge()
-              .getVelocityEstimator()
-              .update(
-                  edge.getInferredEdge().getVelocityPrecisionDist(),
-                  Math.abs(sampledBelief.getMean().getElement(1)));
+          final double speed = Math.abs(sampledBelief.getMean()
+              .getElement(1));
+          edge.getInferredEdge().updateVelocity(speed);
+          speedAggregator.add(edge.getInferredEdge().getEdgeId(),
+              obs.getTimestamp().getTime(), speed, 1d / numParticles);
         }
 
         if (edge.equals(actualPosteriorEdge))
@@ -289,7 +319,7 @@ public class VehicleTrackingPLFilter extends
           this.inferredGraph, obs, updatedFilter, sampledBelief,
           updatedEdgeTransDist, sampledPathEntry.getPath(), state);
 
-      ((LogDefaultDataDistribution)posteriorDist).increment(newTransState, 1d / numParticles);
+      posteriorDist.increment(newTransState, 1d / numParticles);
 
     }
 
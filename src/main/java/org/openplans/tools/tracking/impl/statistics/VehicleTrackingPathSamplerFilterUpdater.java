@@ -397,16 +397,8 @@ public class VehicleTrackingPathSamplerFilterUpdater implements
 
     final EdgeTransitionDistributions sampledTransDist = previousParameter
         .getEdgeTransitionDist().clone();
-    final Vector edgeMotionProbPriorSample = sampledTransDist.edgeMotionTransProbPrior
-        .sample(this.threadRandom.get());
-
-    final Vector freeMotionProbPriorSample = sampledTransDist.freeMotionTransProbPrior
-        .sample(this.threadRandom.get());
-
-    sampledTransDist.edgeMotionTransPrior
-        .setParameters(edgeMotionProbPriorSample);
-    sampledTransDist.freeMotionTransPrior
-        .setParameters(freeMotionProbPriorSample);
+    sampledTransDist.sampleTransitionProbabilities(this.threadRandom
+        .get());
     
     final StandardRoadTrackingFilter predictedFilter = 
         previousParameter.getMovementFilter().clone();
@@ -9,12 +9,17 @@ import org.geotools.referencing.operation.projection.PointOutsideEnvelopeExcepti
 import org.opengis.referencing.crs.CRSAuthorityFactory;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
-import org.opengis.referencing.operation.NoninvertibleTransformException;
-import org.opengis.referencing.operation.TransformException;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Point;
 
+/**
+ * Conversions between lat/lon and the projected (EPSG:4499) coordinates used
+ * for inference. <br>
+ * Point conversions go through the closed-form {@link TransverseMercator}
+ * rather than a GeoTools transform; the GeoTools setup is kept for CRS
+ * objects and geometry transforms.
+ */
 public class GeoUtils {
 
   public static class GeoSetup {
@@ -91,22 +96,21 @@ public class GeoUtils {
 
   };
 
-  public static Coordinate convertToEuclidean(Coordinate latlon) {
-    final Coordinate converted = new Coordinate();
+  private static final TransverseMercator projection = TransverseMercator.EPSG_4499;
 
-    try {
-      /*
-       * CRS is lon-lat order
-       */
-      final Coordinate lonlat = reverseCoordinates(latlon);
-      JTS.transform(lonlat, converted, getCRSTransform());
-    } catch (final NoninvertibleTransformException e) {
-      e.printStackTrace();
-    } catch (final TransformException e) {
-      e.printStackTrace();
-    }
+  /**
+   * Projects count interleaved (lon, lat) pairs to (x, y) pairs. The arrays
+   * may be the same.
+   */
+  public static void convertToEuclidean(double[] lonLat, double[] xy,
+    int count) {
+    projection.project(lonLat, xy, count);
+  }
 
-    return converted;
+  public static Coordinate convertToEuclidean(Coordinate latlon) {
+    final double[] xy = new double[2];
+    projection.project(latlon.y, latlon.x, xy, 0);
+    return new Coordinate(xy[0], xy[1]);
   }
 
   public static Coordinate convertToEuclidean(Vector vec) {
@@ -115,16 +119,9 @@ public class GeoUtils {
   }
 
   public static Coordinate convertToLatLon(Coordinate xy) {
-    final Coordinate converted = new Coordinate();
-    try {
-      JTS.transform(xy, converted, getCRSTransform().inverse());
-    } catch (final NoninvertibleTransformException e) {
-      e.printStackTrace();
-    } catch (final TransformException e) {
-      e.printStackTrace();
-    }
-
-    return new Coordinate(converted.y, converted.x);
+    final double[] lonLat = new double[2];
+    projection.unproject(xy.x, xy.y, lonLat, 0);
+    return new Coordinate(lonLat[1], lonLat[0]);
   }
 
   public static Coordinate convertToLatLon(Vector vec) {
@@ -133,31 +130,24 @@ public class GeoUtils {
   }
 
   public static Coordinate convertToLonLat(Coordinate xy) {
-    final Coordinate converted = new Coordinate();
-    try {
-      JTS.transform(xy, converted, getCRSTransform().inverse());
-    } catch (final NoninvertibleTransformException e) {
-      e.printStackTrace();
-    } catch (final TransformException e) {
-      e.printStackTrace();
-    }
+    final double[] lonLat = new double[2];
+    projection.unproject(xy.x, xy.y, lonLat, 0);
+    return new Coordinate(lonLat[0], lonLat[1]);
+  }
 
-    return new Coordinate(converted.x, converted.y);
+  /**
+   * Inverse-projects count interleaved (x, y) pairs to (lon, lat) pairs. The
+   * arrays may be the same.
+   */
+  public static void convertToLonLat(double[] xy, double[] lonLat,
+    int count) {
+    projection.unproject(xy, lonLat, count);
   }
 
   public static Coordinate convertToLonLat(Vector vec) {
-    final Coordinate converted = new Coordinate();
-    try {
-      JTS.transform(
-          new Coordinate(vec.getElement(0), vec.getElement(1)),
-          converted, getCRSTransform().inverse());
-    } catch (final NoninvertibleTransformException e) {
-      e.printStackTrace();
-    } catch (final TransformException e) {
-      e.printStackTrace();
-    }
-
-    return converted;
+    final double[] lonLat = new double[2];
+    projection.unproject(vec.getElement(0), vec.getElement(1), lonLat, 0);
+    return new Coordinate(lonLat[0], lonLat[1]);
   }
 
   public static Object getCoordinates(Vector meanLocation) {
@@ -171,9 +161,9 @@ public class GeoUtils {
 
   public static Vector getEuclideanVectorFromLatLon(
     Coordinate coordinate) {
-    final Coordinate resCoord = convertToEuclidean(coordinate);
-    return VectorFactory.getDefault().createVector2D(
-        resCoord.x, resCoord.y);
+    final double[] xy = new double[2];
+    projection.project(coordinate.y, coordinate.x, xy, 0);
+    return VectorFactory.getDefault().createVector2D(xy[0], xy[1]);
   }
 
   public static CoordinateReferenceSystem getLatLonCRS() {
@@ -188,21 +178,20 @@ public class GeoUtils {
     return geoData.get().getProjCRS();
   }
 
+  public static TransverseMercator getProjection() {
+    return projection;
+  }
+
   public static Vector getVector(Coordinate coord) {
     return VectorFactory.getDefault()
         .createVector2D(coord.x, coord.y);
   }
 
+  /**
+   * Whether the (lat, lon) coordinate is within the valid degree ranges.
+   */
   public static boolean isInLatLonCoords(Coordinate rawCoords) {
-    try {
-      JTS.checkCoordinatesRange(
-          JTS.toGeometry(JTS.toDirectPosition(
-              rawCoords, getLatLonCRS()).getDirectPosition()),
-          getLatLonCRS());
-      return true;
-    } catch (final PointOutsideEnvelopeException e) {
-      return false;
-    }
+    return Math.abs(rawCoords.x) <= 90d && Math.abs(rawCoords.y) <= 180d;
   }
 
   public static boolean isInProjCoords(Coordinate rawCoords) {
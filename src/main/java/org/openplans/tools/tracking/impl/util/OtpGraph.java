@@ -3,11 +3,19 @@ package org.openplans.tools.tracking.impl.util;
 import gov.sandia.cognition.math.matrix.Vector;
 import gov.sandia.cognition.statistics.distribution.MultivariateGaussian;
 
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.netlib.blas.BLAS;
 import org.openplans.tools.tracking.graph_builder.PlainStreetEdgeWithOSMData;
@@ -15,10 +23,14 @@ import org.openplans.tools.tracking.graph_builder.TurnVertexWithOSMData;
 import org.openplans.tools.tracking.impl.VehicleState;
 import org.openplans.tools.tracking.impl.graph.BaseGraph;
 import org.openplans.tools.tracking.impl.graph.CartesianDistanceLibrary;
+import org.openplans.tools.tracking.impl.graph.CompactGraph;
+import org.openplans.tools.tracking.impl.graph.EdgeIndex;
 import org.openplans.tools.tracking.impl.graph.InferredEdge;
 import org.openplans.tools.tracking.impl.graph.paths.InferredPath;
 import org.openplans.tools.tracking.impl.graph.paths.PathEdge;
 import org.openplans.tools.tracking.impl.graph.paths.algorithms.MultiDestinationAStar;
+import org.openplans.tools.tracking.impl.statistics.EdgeSpeedAggregator;
+import org.openplans.tools.tracking.impl.statistics.EdgeVelocityStatistics;
 import org.openplans.tools.tracking.impl.statistics.StandardRoadTrackingFilter;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -28,7 +40,6 @@ import org.opentripplanner.routing.edgetype.TurnEdge;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
-import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.impl.GraphServiceImpl;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl.CandidateEdgeBundle;
@@ -45,12 +56,9 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.index.strtree.STRtree;
 
 public class OtpGraph {
 
@@ -130,66 +138,6 @@ public class OtpGraph {
 
   }
 
-  public static class VertexPair {
-
-    private final Vertex startVertex;
-    private final Vertex endVertex;
-
-    public VertexPair(Vertex startVertex, Vertex endVertex) {
-      this.startVertex = startVertex;
-      this.endVertex = endVertex;
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) {
-        return true;
-      }
-      if (obj == null) {
-        return false;
-      }
-      if (getClass() != obj.getClass()) {
-        return false;
-      }
-      final VertexPair other = (VertexPair) obj;
-      if (endVertex == null) {
-        if (other.endVertex != null) {
-          return false;
-        }
-      } else if (!endVertex.equals(other.endVertex)) {
-        return false;
-      }
-      if (startVertex == null) {
-        if (other.startVertex != null) {
-          return false;
-        }
-      } else if (!startVertex.equals(other.startVertex)) {
-        return false;
-      }
-      return true;
-    }
-
-    public Vertex getEndVertex() {
-      return endVertex;
-    }
-
-    public Vertex getStartVertex() {
-      return startVertex;
-    }
-
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result
-          + ((endVertex == null) ? 0 : endVertex.hashCode());
-      result = prime * result
-          + ((startVertex == null) ? 0 : startVertex.hashCode());
-      return result;
-    }
-
-  }
-
   private static final double MAX_DISTANCE_SPEED = 53.6448; // ~120 mph
 
   private static final Logger log = LoggerFactory
@@ -208,19 +156,45 @@ public class OtpGraph {
    * inference tasks other than routing.
    */
   private final Graph baseGraph;
-  //base index service is in projected coords
-  private final StreetVertexIndexServiceImpl baseIndexService;
+  /*
+   * Base index service is in projected coords.  It's only needed for
+   * snapping, so it's built on first use.
+   */
+  private volatile StreetVertexIndexServiceImpl baseIndexService;
   private final static RoutingRequest defaultOptions = new RoutingRequest(
       TraverseMode.CAR);
-  private final STRtree turnEdgeIndex = new STRtree();
-  private final STRtree baseEdgeIndex = new STRtree();
 
-  private final STRtree turnVertexIndex = new STRtree();
+  /**
+   * Spatial index, lengths and coordinates for the base graph's edges,
+   * memory-mapped from the file next to the graph.
+   */
+  private final EdgeIndex edgeIndex;
+
+  /**
+   * Int-indexed street topology of the base graph, used by inference in
+   * place of the OTP vertices and edges.
+   */
+  private final CompactGraph compactGraph;
 
   private final DistanceLibrary distanceLibrary = new CartesianDistanceLibrary();
 
-  private final Map<VertexPair, InferredEdge> edgeToInfo = Maps
-      .newConcurrentMap();
+  /**
+   * Every base-graph edge's InferredEdge, indexed by base-graph edge id.
+   * Created up-front so that lookups never allocate or race.
+   */
+  private final InferredEdge[] inferredEdges;
+
+  /**
+   * Velocity posteriors for all edges, shared by every vehicle.
+   */
+  private final EdgeVelocityStatistics velocityStatistics;
+
+  /**
+   * Time-of-day speed samples for all edges, fed by every vehicle.
+   */
+  private final EdgeSpeedAggregator speedAggregator;
+
+  private final List<InferredEdge> inferredEdgeList;
 
   private final LoadingCache<PathKey, Set<InferredPath>> pathsCache = CacheBuilder
       .newBuilder().maximumSize(1000)
@@ -247,10 +221,20 @@ public class OtpGraph {
     turnGraph = gs.getGraph();
     baseGraph = turnGraph.getService(BaseGraph.class).getBaseGraph();
 
-    baseIndexService = new StreetVertexIndexServiceImpl(
-        baseGraph, distanceLibrary);
-    createIndices(baseGraph, baseEdgeIndex, null);
-    createIndices(turnGraph, turnEdgeIndex, turnVertexIndex);
+    edgeIndex = EdgeIndex.load(
+        new File(path, EdgeIndex.FILE_NAME), baseGraph, turnGraph);
+
+    compactGraph = CompactGraph.build(baseGraph, edgeIndex);
+    velocityStatistics = new EdgeVelocityStatistics(
+        edgeIndex.getEdgeCount());
+    speedAggregator = new EdgeSpeedAggregator(edgeIndex.getEdgeCount());
+    inferredEdges = createInferredEdges();
+    final List<InferredEdge> edgeList = Lists.newArrayList();
+    for (final InferredEdge edge : inferredEdges) {
+      if (edge != null)
+        edgeList.add(edge);
+    }
+    inferredEdgeList = Collections.unmodifiableList(edgeList);
 
     log.info("Graph loaded..");
   }
@@ -390,24 +374,46 @@ public class OtpGraph {
       return null;
   }
 
-  private void createIndices(Graph graph, STRtree edgeIndex,
-    STRtree vertexIndex) {
-
-    for (final Vertex v : graph.getVertices()) {
-      if (vertexIndex != null) {
-        final Envelope vertexEnvelope = new Envelope(
-            v.getCoordinate());
-        vertexIndex.insert(vertexEnvelope, v);
-      }
-
-      for (final Edge e : v.getOutgoing()) {
-        if (graph.getIdForEdge(e) != null) {
-          final Geometry geometry = e.getGeometry();
-          final Envelope envelope = geometry.getEnvelopeInternal();
-          edgeIndex.insert(envelope, e);
+  /**
+   * Creates the InferredEdges for all base-graph edges with a geometry,
+   * split into one chunk of ids per processor.
+   */
+  private InferredEdge[] createInferredEdges() {
+    final int edgeCount = edgeIndex.getEdgeCount();
+    final InferredEdge[] edges = new InferredEdge[edgeCount];
+    final int threads = Runtime.getRuntime().availableProcessors();
+    final int chunkSize = Math.max(1, (edgeCount + threads - 1)
+        / threads);
+    final List<Callable<Object>> tasks = Lists.newArrayList();
+    for (int start = 0; start < edgeCount; start += chunkSize) {
+      final int from = start;
+      final int to = Math.min(edgeCount, start + chunkSize);
+      tasks.add(Executors.callable(new Runnable() {
+        @Override
+        public void run() {
+          for (int id = from; id < to; id++) {
+            if (edgeIndex.hasEdge(id))
+              edges[id] = new InferredEdge(
+                  baseGraph.getEdgeById(id), id, OtpGraph.this);
+          }
         }
+      }));
+    }
+
+    final ExecutorService executor = Executors
+        .newFixedThreadPool(threads);
+    try {
+      for (final Future<Object> result : executor.invokeAll(tasks)) {
+        result.get();
       }
+    } catch (final InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (final ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdown();
     }
+    return edges;
   }
 
   private Edge getBaseEdge(Edge edge) {
@@ -423,48 +429,53 @@ public class OtpGraph {
     return baseGraph;
   }
 
-  //unused
-  public InferredEdge getEdge(int id) {
-
-    final Edge edge = baseGraph.getEdgeById(id);
-    final VertexPair key = new VertexPair(
-        edge.getFromVertex(), edge.getToVertex());
-    InferredEdge edgeInfo = edgeToInfo.get(key);
-
-    if (edgeInfo == null) {
-      edgeInfo = new InferredEdge(edge, id, this);
-      edgeToInfo.put(key, edgeInfo);
-    }
+  public GraphServiceImpl getGs() {
+    return gs;
+  }
 
-    return edgeInfo;
+  public CompactGraph getCompactGraph() {
+    return compactGraph;
   }
 
-  public GraphServiceImpl getGs() {
-    return gs;
+  public EdgeIndex getEdgeIndex() {
+    return edgeIndex;
   }
 
   public StreetVertexIndexServiceImpl getIndexService() {
-    return baseIndexService;
+    StreetVertexIndexServiceImpl indexService = baseIndexService;
+    if (indexService == null) {
+      synchronized (this) {
+        indexService = baseIndexService;
+        if (indexService == null) {
+          indexService = new StreetVertexIndexServiceImpl(
+              baseGraph, distanceLibrary);
+          baseIndexService = indexService;
+        }
+      }
+    }
+    return indexService;
   }
 
+  /**
+   * Returns the InferredEdge for a base or turn-graph edge.
+   */
   public InferredEdge getInferredEdge(Edge edge) {
-    edge = getBaseEdge(edge);
-
-    final VertexPair key = new VertexPair(
-        edge.getFromVertex(), edge.getToVertex());
-    InferredEdge edgeInfo = edgeToInfo.get(key);
-
-    if (edgeInfo == null) {
-      final Integer edgeId = baseGraph.getIdForEdge(edge);
-      edgeInfo = new InferredEdge(edge, edgeId, this);
-      edgeToInfo.put(key, edgeInfo);
-    }
+    final Integer edgeId = baseGraph.getIdForEdge(getBaseEdge(edge));
+    Preconditions.checkArgument(edgeId != null,
+        "edge is not in the base graph");
+    return inferredEdges[edgeId];
+  }
 
-    return edgeInfo;
+  /**
+   * Returns the InferredEdge for a base-graph edge id, or null when that
+   * edge has no geometry.
+   */
+  public InferredEdge getInferredEdge(int edgeId) {
+    return inferredEdges[edgeId];
   }
 
   public Collection<InferredEdge> getInferredEdges() {
-    return edgeToInfo.values();
+    return inferredEdgeList;
   }
 
   /**
@@ -478,9 +489,13 @@ public class OtpGraph {
     final Envelope toEnv = new Envelope(loc);
     toEnv.expandBy(radius);
     final Set<StreetEdge> streetEdges = Sets.newHashSet();
-    for (final Object obj : baseEdgeIndex.query(toEnv)) {
-      if (((StreetEdge) obj).canTraverse(defaultOptions))
-        streetEdges.add((StreetEdge) obj);
+    final TIntArrayList edgeIds = new TIntArrayList();
+    edgeIndex.query(toEnv, edgeIds);
+    for (int i = 0; i < edgeIds.size(); i++) {
+      final StreetEdge edge = (StreetEdge) baseGraph.getEdgeById(edgeIds
+          .get(i));
+      if (edge.canTraverse(defaultOptions))
+        streetEdges.add(edge);
     }
     return streetEdges;
   }
@@ -502,9 +517,10 @@ public class OtpGraph {
     toEnv.expandBy(varDistance);
 
     final List<StreetEdge> streetEdges = Lists.newArrayList();
-    for (final Object obj : baseEdgeIndex.query(toEnv)) {
-      final Edge edge = (Edge) obj;
-      streetEdges.add((StreetEdge) edge);
+    final TIntArrayList edgeIds = new TIntArrayList();
+    edgeIndex.query(toEnv, edgeIds);
+    for (int i = 0; i < edgeIds.size(); i++) {
+      streetEdges.add((StreetEdge) baseGraph.getEdgeById(edgeIds.get(i)));
     }
     return streetEdges;
   }
@@ -573,6 +589,14 @@ public class OtpGraph {
     return null;
   }
 
+  public EdgeSpeedAggregator getSpeedAggregator() {
+    return speedAggregator;
+  }
+
+  public EdgeVelocityStatistics getVelocityStatistics() {
+    return velocityStatistics;
+  }
+
   public int getVertexCount() {
     return baseGraph.getVertices().size();
   }
@@ -582,7 +606,7 @@ public class OtpGraph {
     Preconditions.checkNotNull(toCoords);
 
     final RoutingRequest options = OtpGraph.defaultOptions;
-    final CandidateEdgeBundle edgeBundle = baseIndexService
+    final CandidateEdgeBundle edgeBundle = getIndexService()
         .getClosestEdges(toCoords, options, null, null);
     return edgeBundle.toEdgeList();
   }
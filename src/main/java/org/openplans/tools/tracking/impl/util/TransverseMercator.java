@@ -0,0 +1,233 @@
+package org.openplans.tools.tracking.impl.util;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Closed-form transverse Mercator projection on primitives, using the
+ * 6th-order Kr&uuml;ger series (Karney, "Transverse Mercator with an accuracy
+ * of a few nanometers", J. Geodesy 85, 2011). <br>
+ * Within a few thousand kilometers of the central meridian the series is
+ * accurate to well under a millimeter, and the inverse round-trips to ~1e-13
+ * degrees. No datum shift is applied, i.e. geographic coordinates are taken
+ * to be on the projection's ellipsoid, as with GeoTools' lenient transform
+ * between WGS84 and CGCS2000. <br>
+ * Batch methods take interleaved (lon, lat) or (x, y) arrays, and can work
+ * in place.
+ */
+public class TransverseMercator {
+
+  /**
+   * EPSG:4499, CGCS2000 / Gauss-Kruger zone 21: central meridian 123E,
+   * scale 1, false easting 21,500,000 m, on the CGCS2000 (GRS80) ellipsoid.
+   */
+  public static final TransverseMercator EPSG_4499 = new TransverseMercator(
+      6378137d, 1d / 298.257222101d, 123d, 1d, 21500000d, 0d);
+
+  private static final int ORDER = 6;
+
+  private final double lon0;
+  private final double k0A;
+  private final double falseEasting;
+  private final double falseNorthing;
+  private final double e;
+  private final double e2;
+  private final double[] alpha = new double[ORDER];
+  private final double[] beta = new double[ORDER];
+
+  /**
+   * @param semiMajorAxis
+   *          a, in meters
+   * @param flattening
+   *          f, e.g. 1 / 298.257223563 for WGS84
+   * @param centralMeridian
+   *          in degrees
+   * @param scaleFactor
+   *          k0 on the central meridian
+   */
+  public TransverseMercator(double semiMajorAxis, double flattening,
+    double centralMeridian, double scaleFactor, double falseEasting,
+    double falseNorthing) {
+    Preconditions.checkArgument(semiMajorAxis > 0d);
+    Preconditions.checkArgument(flattening >= 0d && flattening < 1d);
+    Preconditions.checkArgument(scaleFactor > 0d);
+
+    this.lon0 = Math.toRadians(centralMeridian);
+    this.falseEasting = falseEasting;
+    this.falseNorthing = falseNorthing;
+    this.e2 = flattening * (2d - flattening);
+    this.e = Math.sqrt(e2);
+
+    final double n = flattening / (2d - flattening);
+    final double n2 = n * n;
+    final double n3 = n2 * n;
+    final double n4 = n3 * n;
+    final double n5 = n4 * n;
+    final double n6 = n5 * n;
+
+    /*
+     * Rectifying radius.
+     */
+    final double a = semiMajorAxis / (1d + n)
+        * (1d + n2 / 4d + n4 / 64d + n6 / 256d);
+    this.k0A = scaleFactor * a;
+
+    alpha[0] = n / 2d - 2d * n2 / 3d + 5d * n3 / 16d + 41d * n4 / 180d
+        - 127d * n5 / 288d + 7891d * n6 / 37800d;
+    alpha[1] = 13d * n2 / 48d - 3d * n3 / 5d + 557d * n4 / 1440d + 281d
+        * n5 / 630d - 1983433d * n6 / 1935360d;
+    alpha[2] = 61d * n3 / 240d - 103d * n4 / 140d + 15061d * n5
+        / 26880d + 167603d * n6 / 181440d;
+    alpha[3] = 49561d * n4 / 161280d - 179d * n5 / 168d + 6601661d * n6
+        / 7257600d;
+    alpha[4] = 34729d * n5 / 80640d - 3418889d * n6 / 1995840d;
+    alpha[5] = 212378941d * n6 / 319334400d;
+
+    beta[0] = n / 2d - 2d * n2 / 3d + 37d * n3 / 96d - n4 / 360d - 81d
+        * n5 / 512d + 96199d * n6 / 604800d;
+    beta[1] = n2 / 48d + n3 / 15d - 437d * n4 / 1440d + 46d * n5 / 105d
+        - 1118711d * n6 / 3870720d;
+    beta[2] = 17d * n3 / 480d - 37d * n4 / 840d - 209d * n5 / 4480d
+        + 5569d * n6 / 90720d;
+    beta[3] = 4397d * n4 / 161280d - 11d * n5 / 504d - 830251d * n6
+        / 7257600d;
+    beta[4] = 4583d * n5 / 161280d - 108847d * n6 / 3991680d;
+    beta[5] = 20648693d * n6 / 638668800d;
+  }
+
+  /**
+   * Projects count interleaved (lon, lat) pairs, in degrees, to (x, y)
+   * pairs. lonLat and xy may be the same array.
+   */
+  public void project(double[] lonLat, double[] xy, int count) {
+    project(lonLat, xy, 0, count);
+  }
+
+  /**
+   * Projects the count pairs starting at pair index offset, leaving the rest
+   * of xy untouched, so disjoint ranges of one array can be projected in
+   * parallel.
+   */
+  public void project(double[] lonLat, double[] xy, int offset,
+    int count) {
+    Preconditions.checkArgument(offset >= 0 && count >= 0);
+    final int end = 2 * (offset + count);
+    Preconditions.checkArgument(lonLat.length >= end && xy.length >= end);
+    for (int i = 2 * offset; i < end; i += 2) {
+      project(lonLat[i], lonLat[i + 1], xy, i);
+    }
+  }
+
+  /**
+   * Projects one point, in degrees, writing (x, y) to out[offset] and
+   * out[offset + 1].
+   */
+  public void project(double lon, double lat, double[] out, int offset) {
+    final double lambda = Math.toRadians(lon) - lon0;
+    final double tau = Math.tan(Math.toRadians(lat));
+    final double taup = conformalTan(tau);
+
+    final double cosLambda = Math.cos(lambda);
+    final double xip = Math.atan2(taup, cosLambda);
+    final double etap = asinh(Math.sin(lambda)
+        / Math.sqrt(taup * taup + cosLambda * cosLambda));
+
+    double xi = xip;
+    double eta = etap;
+    for (int j = 1; j <= ORDER; j++) {
+      final double a = alpha[j - 1];
+      xi += a * Math.sin(2 * j * xip) * Math.cosh(2 * j * etap);
+      eta += a * Math.cos(2 * j * xip) * Math.sinh(2 * j * etap);
+    }
+
+    out[offset] = falseEasting + k0A * eta;
+    out[offset + 1] = falseNorthing + k0A * xi;
+  }
+
+  /**
+   * Inverse of {@link #project(double[], double[], int)}: count interleaved
+   * (x, y) pairs to (lon, lat) pairs in degrees. xy and lonLat may be the
+   * same array.
+   */
+  public void unproject(double[] xy, double[] lonLat, int count) {
+    unproject(xy, lonLat, 0, count);
+  }
+
+  /**
+   * Inverse-projects the count pairs starting at pair index offset.
+   */
+  public void unproject(double[] xy, double[] lonLat, int offset,
+    int count) {
+    Preconditions.checkArgument(offset >= 0 && count >= 0);
+    final int end = 2 * (offset + count);
+    Preconditions.checkArgument(lonLat.length >= end && xy.length >= end);
+    for (int i = 2 * offset; i < end; i += 2) {
+      unproject(xy[i], xy[i + 1], lonLat, i);
+    }
+  }
+
+  /**
+   * Inverse-projects one point, writing (lon, lat) in degrees to
+   * out[offset] and out[offset + 1].
+   */
+  public void unproject(double x, double y, double[] out, int offset) {
+    final double xi = (y - falseNorthing) / k0A;
+    final double eta = (x - falseEasting) / k0A;
+
+    double xip = xi;
+    double etap = eta;
+    for (int j = 1; j <= ORDER; j++) {
+      final double b = beta[j - 1];
+      xip -= b * Math.sin(2 * j * xi) * Math.cosh(2 * j * eta);
+      etap -= b * Math.cos(2 * j * xi) * Math.sinh(2 * j * eta);
+    }
+
+    final double sinhEtap = Math.sinh(etap);
+    final double cosXip = Math.cos(xip);
+    final double taup = Math.sin(xip)
+        / Math.sqrt(sinhEtap * sinhEtap + cosXip * cosXip);
+    final double lambda = Math.atan2(sinhEtap, cosXip);
+
+    out[offset] = Math.toDegrees(lambda + lon0);
+    out[offset + 1] = Math.toDegrees(Math.atan(geographicTan(taup)));
+  }
+
+  /**
+   * tan of the conformal latitude, given tan of the geographic latitude.
+   */
+  private double conformalTan(double tau) {
+    final double tau1 = Math.sqrt(1d + tau * tau);
+    final double sigma = Math.sinh(e * atanh(e * tau / tau1));
+    return tau * Math.sqrt(1d + sigma * sigma) - sigma * tau1;
+  }
+
+  /**
+   * Inverts {@link #conformalTan} by Newton's method; two or three
+   * iterations reach full precision.
+   */
+  private double geographicTan(double taup) {
+    double tau = taup;
+    for (int i = 0; i < 5; i++) {
+      final double taupi = conformalTan(tau);
+      final double tau1 = Math.sqrt(1d + tau * tau);
+      final double delta = (taup - taupi) / Math.sqrt(1d + taupi * taupi)
+          * (1d + (1d - e2) * tau * tau) / ((1d - e2) * tau1);
+      tau += delta;
+      if (Math.abs(delta) <= 1e-14 * Math.max(1d, Math.abs(tau)))
+        break;
+    }
+    return tau;
+  }
+
+  private static double asinh(double x) {
+    final double y = Math.abs(x);
+    final double r = Math.log1p(y + y * y / (1d + Math.sqrt(1d + y * y)));
+    return x < 0d ? -r : r;
+  }
+
+  private static double atanh(double x) {
+    final double y = Math.abs(x);
+    final double r = 0.5d * Math.log1p(2d * y / (1d - y));
+    return x < 0d ? -r : r;
+  }
+
+}
@@ -0,0 +1,75 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AliasSamplerTest {
+
+  @Test
+  public void testFrequencies() {
+    final double[] probs = { 0.5d, 0d, 0.2d, 0.25d, 0.05d, 0d };
+    final double[] logWeights = new double[probs.length];
+    for (int i = 0; i < probs.length; i++) {
+      logWeights[i] = Math.log(probs[i]) - 3d;
+    }
+
+    final AliasSampler sampler = new AliasSampler(logWeights,
+        probs.length);
+    final Random rng = new Random(123l);
+    final int n = 200000;
+    final int[] counts = new int[probs.length];
+    for (int i = 0; i < n; i++) {
+      counts[sampler.sample(rng)]++;
+    }
+
+    for (int i = 0; i < probs.length; i++) {
+      if (probs[i] == 0d)
+        assertEquals(0, counts[i]);
+      else
+        assertEquals(probs[i], (double) counts[i] / n, 0.005d);
+    }
+  }
+
+  /**
+   * Several over-full entries and several zeros; the probabilities implied by
+   * the table must match exactly, up to rounding.
+   */
+  @Test
+  public void testTableWithZeros() {
+    final double[][] cases = { { 0.4d, 0.4d, 0.2d, 0d },
+        { 0.3d, 0d, 0.3d, 0d, 0.25d, 0d, 0.15d, 0d },
+        { 0d, 0d, 0.6d, 0.35d, 0.05d } };
+    for (final double[] probs : cases) {
+      final int n = probs.length;
+      final double[] logWeights = new double[n];
+      for (int i = 0; i < n; i++) {
+        logWeights[i] = Math.log(probs[i]);
+      }
+
+      final AliasSampler sampler = new AliasSampler(logWeights, n);
+      final double[] implied = new double[n];
+      for (int i = 0; i < n; i++) {
+        final double p = sampler.getSlotProbability(i);
+        implied[i] += p / n;
+        implied[sampler.getAlias(i)] += (1d - p) / n;
+      }
+      for (int i = 0; i < n; i++) {
+        assertEquals(probs[i], implied[i], 1e-12);
+      }
+    }
+  }
+
+  @Test
+  public void testSingleEntry() {
+    final AliasSampler sampler = new AliasSampler(new double[] { -1000d,
+        Double.NEGATIVE_INFINITY }, 2);
+    final Random rng = new Random(1l);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(0, sampler.sample(rng));
+    }
+  }
+
+}
@@ -0,0 +1,46 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class EdgeSpeedAggregatorTest {
+
+  private static final long HOUR = 60l * 60l * 1000l;
+
+  @Test
+  public void testBuckets() {
+    final EdgeSpeedAggregator aggregator = new EdgeSpeedAggregator(
+        10, 30, TimeZone.getTimeZone("GMT+02:00"));
+    assertEquals(48, aggregator.getBucketCount());
+    assertEquals(4, aggregator.getBucket(0l));
+    assertEquals(5, aggregator.getBucket(HOUR / 2));
+    assertEquals(3, aggregator.getBucket(-HOUR / 2));
+    assertEquals(4, aggregator.getBucket(24l * HOUR * 400l));
+  }
+
+  @Test
+  public void testSummary() {
+    final EdgeSpeedAggregator aggregator = new EdgeSpeedAggregator(
+        10, 60, TimeZone.getTimeZone("GMT"));
+    aggregator.add(3, 8l * HOUR, 10d, 0.5d);
+    aggregator.add(3, 8l * HOUR + 10l, 20d, 0.5d);
+    aggregator.add(3, 24l * HOUR + 8l * HOUR, 30d, 1d);
+    aggregator.add(3, 9l * HOUR, 5d, 1d);
+
+    final EdgeSpeedAggregator.SpeedSummary summary = aggregator
+        .getSummary(3);
+    assertEquals(3d, summary.getTotalWeight(), 0d);
+    assertEquals(2d, summary.getWeights()[8], 0d);
+    assertEquals(22.5d, summary.getMeans()[8], 1e-12);
+    assertEquals(Math.sqrt(68.75d),
+        summary.getStdDevs()[8], 1e-9);
+    assertEquals(5d, summary.getMeans()[9], 0d);
+    assertEquals(0d, summary.getStdDevs()[9], 0d);
+
+    assertEquals(0d, aggregator.getSummary(4).getTotalWeight(), 0d);
+  }
+
+}
@@ -0,0 +1,66 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class EdgeVelocityStatisticsTest {
+
+  @Test
+  public void testConcurrentUpdates() throws InterruptedException {
+    final int edgeCount = 200;
+    final int threadCount = 8;
+    final int updatesPerEdge = 500;
+    final EdgeVelocityStatistics stats = new EdgeVelocityStatistics(
+        edgeCount);
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          for (int n = 0; n < updatesPerEdge; n++) {
+            for (int i = 0; i < edgeCount; i++) {
+              stats.update(i, 10d);
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    start.countDown();
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    final EdgeVelocityStatistics.Snapshot snapshot = stats.snapshot();
+    assertEquals(edgeCount, snapshot.getEdgeCount());
+    for (int i = 0; i < edgeCount; i++) {
+      assertEquals(threadCount * updatesPerEdge,
+          snapshot.getObservationCount(i));
+      assertEquals(stats.getMean(i), snapshot.getMean(i), 0d);
+    }
+  }
+
+  @Test
+  public void testUpdate() {
+    final EdgeVelocityStatistics stats = new EdgeVelocityStatistics(3);
+    stats.update(1, 12d);
+    final double lambda = EdgeVelocityStatistics.PRIOR_PRECISION;
+    assertEquals(
+        (lambda * EdgeVelocityStatistics.PRIOR_LOCATION + 12d)
+            / (lambda + 1d), stats.getMean(1), 1e-12);
+    assertEquals(EdgeVelocityStatistics.PRIOR_LOCATION,
+        stats.getMean(0), 0d);
+    assertEquals(1, stats.snapshot().getObservationCount(1));
+  }
+
+}
@@ -0,0 +1,107 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import static org.junit.Assert.assertEquals;
+import gov.sandia.cognition.math.matrix.Matrix;
+import gov.sandia.cognition.math.matrix.MatrixFactory;
+import gov.sandia.cognition.math.matrix.Vector;
+import gov.sandia.cognition.math.matrix.VectorFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class KalmanKernelsTest {
+
+  private static final double TOLERANCE = 1e-9;
+
+  private Matrix cov;
+  private Vector mean;
+  private Matrix modelCov;
+  private Matrix obsCov;
+
+  @Before
+  public void setUp() throws Exception {
+    mean = VectorFactory.getDefault().copyValues(10d, 2d, -5d, 0.5d);
+    final Matrix factor = MatrixFactory.getDefault().copyArray(
+        new double[][] { { 2d, 0.1d, 0.3d, 0d },
+            { 0d, 1d, 0.2d, 0.1d }, { 0d, 0d, 3d, 0.4d },
+            { 0d, 0d, 0d, 0.5d } });
+    cov = factor.transpose().times(factor);
+    modelCov = StandardRoadTrackingFilter.getCovarianceFactor(2d, false)
+        .times(MatrixFactory.getDefault().createIdentity(2, 2))
+        .times(
+            StandardRoadTrackingFilter.getCovarianceFactor(2d, false)
+                .transpose());
+    obsCov = MatrixFactory.getDefault().copyArray(
+        new double[][] { { 25d, 1d }, { 1d, 16d } });
+  }
+
+  @Test
+  public void testLogLikelihood() {
+    final Matrix Og = StandardRoadTrackingFilter.getOg();
+    final Matrix Q = Og.times(cov).times(Og.transpose()).plus(obsCov);
+    final Vector obs = VectorFactory.getDefault().copyValues(12d, -4d);
+    final double expected = StatisticsUtil.logEvaluateNormal(
+        obs, Og.times(mean), Q);
+
+    final double actual = KalmanKernels.groundLogLikelihood(
+        obs.getElement(0), obs.getElement(1), toArray(mean),
+        toArray(cov), toArray(obsCov));
+    assertEquals(expected, actual, TOLERANCE);
+  }
+
+  @Test
+  public void testPredict4D() {
+    final Matrix G = MatrixFactory.getDefault().createIdentity(4, 4);
+    G.setElement(0, 1, 2d);
+    G.setElement(2, 3, 2d);
+    final Vector expectedMean = G.times(mean);
+    final Matrix expectedCov = G.times(cov).times(G.transpose())
+        .plus(modelCov);
+
+    final double[] m = toArray(mean);
+    final double[] P = toArray(cov);
+    KalmanKernels.predict4D(m, P, 2d, toArray(modelCov));
+    assertArrayEquals(toArray(expectedMean), m);
+    assertArrayEquals(toArray(expectedCov), P);
+  }
+
+  @Test
+  public void testUpdateGround() {
+    final Matrix Og = StandardRoadTrackingFilter.getOg();
+    final Vector obs = VectorFactory.getDefault().copyValues(12d, -4d);
+    final Matrix S = Og.times(cov).times(Og.transpose()).plus(obsCov);
+    final Matrix K = cov.times(Og.transpose()).times(S.inverse());
+    final Vector expectedMean = mean.plus(K.times(obs.minus(Og
+        .times(mean))));
+    final Matrix expectedCov = cov.minus(K.times(Og).times(cov));
+
+    final double[] m = toArray(mean);
+    final double[] P = toArray(cov);
+    KalmanKernels.updateGround(
+        m, P, obs.getElement(0), obs.getElement(1), toArray(obsCov));
+    assertArrayEquals(toArray(expectedMean), m);
+    assertArrayEquals(toArray(expectedCov), P);
+  }
+
+  private static void assertArrayEquals(double[] expected,
+    double[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], actual[i], TOLERANCE);
+    }
+  }
+
+  private static double[] toArray(Matrix matrix) {
+    final double[] result = new double[matrix.getNumRows()
+        * matrix.getNumColumns()];
+    KalmanKernels.copyToArray(matrix, result);
+    return result;
+  }
+
+  private static double[] toArray(Vector vector) {
+    final double[] result = new double[vector.getDimensionality()];
+    KalmanKernels.copyToArray(vector, result);
+    return result;
+  }
+
+}
@@ -0,0 +1,95 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import gov.sandia.cognition.math.LogMath;
+
+import java.util.Random;
+
+/**
+ * Times {@link LogNormalCdf#logCdfDifference} against the two
+ * {@link StatisticsUtil#normalCdf} calls and {@link LogMath#subtract} it
+ * replaced in InferredPath.marginalPredictiveLogLikelihood. <br>
+ * This isn't a unit test, so the test run doesn't pick it up; run its main
+ * from the test classpath, e.g. with exec:java and
+ * -Dexec.classpathScope=test. Arguments are the number of intervals per
+ * round (default 1000000) and the number of timed rounds (default 10),
+ * which follow as many untimed warm-up rounds.
+ */
+public class LogNormalCdfBenchmark {
+
+  private final double[] lower;
+  private final double[] upper;
+
+  /*
+   * Results are accumulated here so the JIT can't drop the calls.
+   */
+  private double sink = 0d;
+
+  public LogNormalCdfBenchmark(int n, long seed) {
+    lower = new double[n];
+    upper = new double[n];
+    final Random rng = new Random(seed);
+    for (int i = 0; i < n; i++) {
+      lower[i] = rng.nextGaussian() * 4d;
+      upper[i] = lower[i] + rng.nextDouble() * 4d;
+    }
+  }
+
+  /**
+   * @return nanoseconds per interval
+   */
+  public double timeLogCdfDifference() {
+    final long start = System.nanoTime();
+    double total = 0d;
+    for (int i = 0; i < lower.length; i++) {
+      total += LogNormalCdf.logCdfDifference(lower[i], upper[i]);
+    }
+    final long elapsed = System.nanoTime() - start;
+    sink += total;
+    return (double) elapsed / lower.length;
+  }
+
+  /**
+   * @return nanoseconds per interval
+   */
+  public double timeNormalCdf() {
+    final long start = System.nanoTime();
+    double total = 0d;
+    for (int i = 0; i < lower.length; i++) {
+      total += LogMath.subtract(
+          StatisticsUtil.normalCdf(upper[i], 0d, 1d, true),
+          StatisticsUtil.normalCdf(lower[i], 0d, 1d, true));
+    }
+    final long elapsed = System.nanoTime() - start;
+    sink += total;
+    return (double) elapsed / lower.length;
+  }
+
+  public static void main(String[] args) {
+    final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    final LogNormalCdfBenchmark benchmark = new LogNormalCdfBenchmark(n,
+        2342l);
+
+    for (int round = 0; round < rounds; round++) {
+      benchmark.timeNormalCdf();
+      benchmark.timeLogCdfDifference();
+    }
+
+    double normalCdfTotal = 0d;
+    double tableTotal = 0d;
+    for (int round = 0; round < rounds; round++) {
+      final double normalCdfTime = benchmark.timeNormalCdf();
+      final double tableTime = benchmark.timeLogCdfDifference();
+      normalCdfTotal += normalCdfTime;
+      tableTotal += tableTime;
+      System.out.println(String.format(
+          "round %d: normalCdf %.1f ns/op, LogNormalCdf %.1f ns/op",
+          round, normalCdfTime, tableTime));
+    }
+    System.out.println(String.format(
+        "mean: normalCdf %.1f ns/op, LogNormalCdf %.1f ns/op, %.2fx (%s)",
+        normalCdfTotal / rounds, tableTotal / rounds, normalCdfTotal
+            / tableTotal, benchmark.sink));
+  }
+
+}
@@ -0,0 +1,51 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gov.sandia.cognition.math.LogMath;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogNormalCdfTest {
+
+  @Test
+  public void testLogCdf() {
+    for (double z = -45d; z <= 10d; z += 0.01d) {
+      final double expected = StatisticsUtil.normalCdf(z, 0d, 1d, true);
+      final double actual = LogNormalCdf.logCdf(z);
+      if (z <= 0d)
+        assertEquals(expected, actual, 5e-11);
+      else
+        assertEquals(expected, actual, 5e-11 * Math.abs(expected)
+            + 1e-15);
+    }
+  }
+
+  @Test
+  public void testLogCdfDifference() {
+    final Random rng = new Random(102343l);
+    for (int i = 0; i < 10000; i++) {
+      final double mean = rng.nextGaussian() * 100d;
+      final double stdDev = 1d + rng.nextDouble() * 50d;
+      /*
+       * Stay where the log-space subtraction of normalCdf results is
+       * itself accurate.
+       */
+      final double lower = mean + (rng.nextDouble() * 8d - 4d) * stdDev;
+      final double upper = lower + rng.nextDouble() * 4d * stdDev;
+      final double expected = LogMath.subtract(
+          StatisticsUtil.normalCdf(upper, mean, stdDev, true),
+          StatisticsUtil.normalCdf(lower, mean, stdDev, true));
+      final double actual = LogNormalCdf.logCdfDifference(
+          lower, upper, mean, stdDev);
+      assertEquals(expected, actual, 1e-8 * Math.max(1d,
+          Math.abs(expected)));
+    }
+    assertEquals(Double.NEGATIVE_INFINITY,
+        LogNormalCdf.logCdfDifference(1d, 1d), 0d);
+    assertTrue(LogNormalCdf.logCdfDifference(40d, 41d) < -800d);
+  }
+
+}
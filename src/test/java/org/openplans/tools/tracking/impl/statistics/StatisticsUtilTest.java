@@ -0,0 +1,41 @@
+package org.openplans.tools.tracking.impl.statistics;
+
+import static org.junit.Assert.assertEquals;
+import gov.sandia.cognition.math.matrix.Matrix;
+import gov.sandia.cognition.math.matrix.MatrixFactory;
+import gov.sandia.cognition.math.matrix.Vector;
+import gov.sandia.cognition.math.matrix.VectorFactory;
+import gov.sandia.cognition.statistics.distribution.MultivariateGaussian;
+
+import org.junit.Test;
+
+public class StatisticsUtilTest {
+
+  private static final double TOLERANCE = 1e-9;
+
+  @Test
+  public void testLogEvaluateNormal1D() {
+    final Vector mean = VectorFactory.getDefault().copyValues(3d);
+    final Matrix cov = MatrixFactory.getDefault().copyArray(
+        new double[][] { { 4d } });
+    final Vector input = VectorFactory.getDefault().copyValues(-1.5d);
+    final double expected = new MultivariateGaussian(mean, cov)
+        .getProbabilityFunction().logEvaluate(input);
+    assertEquals(expected,
+        StatisticsUtil.logEvaluateNormal(input, mean, cov), TOLERANCE);
+  }
+
+  @Test
+  public void testLogEvaluateNormal2D() {
+    final Vector mean = VectorFactory.getDefault().copyValues(3d, -2d);
+    final Matrix cov = MatrixFactory.getDefault().copyArray(
+        new double[][] { { 4d, 1.5d }, { 1.5d, 9d } });
+    final Vector input = VectorFactory.getDefault().copyValues(
+        -1.5d, 0.5d);
+    final double expected = new MultivariateGaussian(mean, cov)
+        .getProbabilityFunction().logEvaluate(input);
+    assertEquals(expected,
+        StatisticsUtil.logEvaluateNormal(input, mean, cov), TOLERANCE);
+  }
+
+}
@@ -0,0 +1,82 @@
+package org.openplans.tools.tracking.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.geotools.geometry.jts.JTS;
+import org.junit.Test;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class TransverseMercatorTest {
+
+  private static final TransverseMercator projection = TransverseMercator.EPSG_4499;
+
+  /**
+   * Max. distance from the GeoTools EPSG:4326 -> EPSG:4499 transform, in
+   * meters, within 3 degrees of the central meridian.
+   */
+  private static final double MAX_GEOTOOLS_ERROR = 1e-3d;
+
+  @Test
+  public void testAgainstGeoTools() throws TransformException {
+    double maxError = 0d;
+    final double[] xy = new double[2];
+    for (double lat = 0d; lat <= 20d; lat += 0.25d) {
+      for (double lon = 120d; lon <= 126d; lon += 0.25d) {
+        final Coordinate expected = new Coordinate();
+        JTS.transform(new Coordinate(lon, lat), expected,
+            GeoUtils.getCRSTransform());
+        projection.project(lon, lat, xy, 0);
+        maxError = Math.max(maxError,
+            Math.hypot(xy[0] - expected.x, xy[1] - expected.y));
+      }
+    }
+    assertTrue("max error " + maxError, maxError < MAX_GEOTOOLS_ERROR);
+  }
+
+  @Test
+  public void testBatchRoundTrip() {
+    final int count = 500;
+    final double[] lonLat = new double[2 * count];
+    for (int i = 0; i < count; i++) {
+      lonLat[2 * i] = 118d + 10d * i / count;
+      lonLat[2 * i + 1] = -10d + 40d * ((i * 7) % count) / count;
+    }
+    final double[] points = lonLat.clone();
+    projection.project(points, points, count);
+    projection.unproject(points, points, count);
+    for (int i = 0; i < 2 * count; i++) {
+      assertEquals(lonLat[i], points[i], 1e-11);
+    }
+  }
+
+  @Test
+  public void testCentralMeridian() {
+    final double[] xy = new double[2];
+    projection.project(123d, 0d, xy, 0);
+    assertEquals(21500000d, xy[0], 1e-9);
+    assertEquals(0d, xy[1], 1e-9);
+
+    /*
+     * Northing on the central meridian is the meridian arc length; 10 degrees
+     * on GRS80 is 1105854.833 m.
+     */
+    projection.project(123d, 10d, xy, 0);
+    assertEquals(21500000d, xy[0], 1e-9);
+    assertEquals(1105854.833d, xy[1], 1e-3);
+  }
+
+  @Test
+  public void testGeoUtils() {
+    final Coordinate latLon = new Coordinate(10.3d, 123.9d);
+    final Coordinate xy = GeoUtils.convertToEuclidean(latLon);
+    assertEquals(21598587.394d, xy.x, 1e-3);
+    assertEquals(1139175.920d, xy.y, 1e-3);
+    final Coordinate back = GeoUtils.convertToLatLon(xy);
+    assertEquals(latLon.x, back.x, 1e-12);
+    assertEquals(latLon.y, back.y, 1e-12);
+  }
+
+}
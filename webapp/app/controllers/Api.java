@@ -4,8 +4,10 @@ import gov.sandia.cognition.collection.ScalarMap.Entry;
 import gov.sandia.cognition.learning.data.DefaultTargetEstimatePair;
 import gov.sandia.cognition.learning.data.TargetEstimatePair;
 import gov.sandia.cognition.statistics.DataDistribution;
+import inference.EdgeObservationIndex;
 import inference.InferenceResultRecord;
 import inference.InferenceService;
+import inference.IngestionLimiter;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -23,6 +25,7 @@ import org.openplans.tools.tracking.impl.Observation;
 import org.openplans.tools.tracking.impl.VehicleState;
 import org.openplans.tools.tracking.impl.VehicleStatePerformanceResult;
 import org.openplans.tools.tracking.impl.VehicleTrackingPerformanceEvaluator;
+import org.openplans.tools.tracking.impl.statistics.EdgeSpeedAggregator;
 import org.openplans.tools.tracking.impl.util.GeoUtils;
 import org.openplans.tools.tracking.impl.util.OtpGraph;
 import org.opentripplanner.routing.graph.Edge;
@@ -65,6 +68,21 @@ public class Api extends Controller {
     renderJSON(jsonMapper.writeValueAsString(coords));
   }
 
+  /**
+   * Time-of-day speed summary for an edge, aggregated over all vehicles.
+   */
+  public static void edgeSpeeds(Integer edgeId)
+      throws JsonGenerationException, JsonMappingException,
+      IOException {
+    final EdgeSpeedAggregator aggregator = graph.getSpeedAggregator();
+    if (edgeId == null || edgeId < 0
+        || edgeId >= aggregator.getEdgeCount())
+      renderJSON(jsonMapper.writeValueAsString(null));
+
+    renderJSON(jsonMapper.writeValueAsString(aggregator
+        .getSummary(edgeId)));
+  }
+
   public static void evaluatedPaths(String vehicleId, int recordNumber)
       throws JsonGenerationException, JsonMappingException,
       IOException {
@@ -78,8 +96,8 @@ public class Api extends Controller {
     if (results.isEmpty())
       renderJSON(jsonMapper.writeValueAsString(null));
 
-    final InferenceResultRecord tmpResult = Iterables.get(
-        results, recordNumber, null);
+    final InferenceResultRecord tmpResult = instance
+        .getResultRecord(recordNumber);
 
     if (tmpResult == null)
       error(vehicleId + " result record " + recordNumber
@@ -96,15 +114,16 @@ public class Api extends Controller {
   public static void getObservationsForEdge(Integer edgeId)
       throws JsonGenerationException, JsonMappingException,
       IOException {
-    final List<Coordinate> observations = Lists.newArrayList();
-    for (final InferenceInstance instance : InferenceService
-        .getInferenceInstances()) {
-      observations.addAll(getObservationsForEdgeInternal(
-          instance.getVehicleId(), edgeId));
-    }
-    renderJSON(jsonMapper.writeValueAsString(observations));
+    renderJSON(jsonMapper
+        .writeValueAsString(getObservationsForEdgeInternal(null,
+            edgeId)));
   }
 
+  /**
+   * The vehicle's observations among the edge's most recent ones. The edge
+   * keeps a fixed number of observations over all vehicles, so on a busy
+   * edge other traffic pushes the vehicle's older observations out.
+   */
   public static void getObservationsForEdge(String vehicleId,
     Integer edgeId) throws JsonGenerationException,
       JsonMappingException, IOException {
@@ -113,31 +132,19 @@ public class Api extends Controller {
             vehicleId, edgeId)));
   }
 
+  /**
+   * Looks the edge up in the service's edge index, which only retains each
+   * edge's most recent observations, over all vehicles.
+   */
   private static List<Coordinate> getObservationsForEdgeInternal(
     String vehicleId, Integer edgeId) {
-    final InferenceInstance instance = InferenceService
-        .getInferenceInstance(vehicleId);
-    if (instance == null)
+    final EdgeObservationIndex index = InferenceService
+        .getEdgeObservationIndex();
+    if (edgeId == null || edgeId < 0
+        || edgeId >= index.getEdgeCount())
       return Collections.emptyList();
 
-    final Collection<InferenceResultRecord> resultRecords = instance
-        .getResultRecords();
-    if (resultRecords.isEmpty())
-      return Collections.emptyList();
-
-    final List<Coordinate> observations = Lists.newArrayList();
-    for (final InferenceResultRecord record : instance
-        .getResultRecords()) {
-      if (record.getPostDistribution() == null)
-        continue;
-      for (final VehicleState state : record.getPostDistribution()
-          .getDomain()) {
-        if (state.getInferredEdge().getEdgeId().equals(edgeId))
-          observations.add(state.getObservation().getObsPoint());
-      }
-    }
-
-    return observations;
+    return index.getObservations(edgeId, vehicleId);
   }
 
   public static void getPerformanceResults(String vehicleId)
@@ -159,6 +166,12 @@ public class Api extends Controller {
     final List<TargetEstimatePair<VehicleState, DataDistribution<VehicleState>>> pairs = Lists
         .newArrayList();
     for (final InferenceResultRecord record : resultRecords) {
+      /*
+       * Records spilled from memory no longer have their distributions.
+       */
+      if (record.getPostDistribution() == null
+          || record.getActualResults() == null)
+        continue;
       pairs.add(new DefaultTargetEstimatePair(record
           .getActualResults().getState(), record
           .getPostDistribution()));
@@ -169,25 +182,57 @@ public class Api extends Controller {
     renderJSON(jsonMapper.writeValueAsString(result));
   }
 
+  /**
+   * Counts of accepted, coalesced, dropped, rejected and pending live
+   * observations.
+   */
+  public static void ingestStats() throws JsonGenerationException,
+      JsonMappingException, IOException {
+    renderJSON(jsonMapper.writeValueAsString(InferenceService
+        .getIngestionLimiter().getStats()));
+  }
+
+  /**
+   * Queues a live observation, subject to the ingestion limits. When they're
+   * exceeded and the policy rejects, this responds with a 503 and a
+   * Retry-After header. <br>
+   * Admission comes first, so rejected and dropped observations are never
+   * registered as the vehicle's latest, and a rejected one can be resent.
+   */
   public static void location(String vehicleId, String timestamp,
     String latStr, String lonStr, String velocity, String heading,
     String accuracy) {
 
-    try {
+    if (vehicleId == null)
+      badRequest();
+
+    final IngestionLimiter limiter = InferenceService
+        .getIngestionLimiter();
+    final IngestionLimiter.Decision decision = limiter
+        .tryAcquire(vehicleId);
+    if (decision == IngestionLimiter.Decision.REJECT) {
+      response.setHeader("Retry-After",
+          String.valueOf(limiter.getRetryAfterSeconds()));
+      error(503, "too many pending observations");
+    } else if (decision == IngestionLimiter.Decision.DROP) {
+      ok();
+    }
 
-      final Observation location = Observation.createObservation(
+    final Observation location;
+    try {
+      location = Observation.createObservation(
           vehicleId, timestamp, latStr, lonStr, velocity, heading,
           accuracy);
-
-      if (location != null) {
-        Application.locationActor.tell(location);
-      }
-
-      ok();
     } catch (final Exception e) {
+      limiter.release(vehicleId);
       Logger.error(e.getMessage());
       badRequest();
+      return;
     }
+
+    Application.getLocationActor(location.getVehicleId()).tell(location);
+
+    ok();
   }
 
   public static void particleDetails(String vehicleId,
@@ -204,13 +249,16 @@ public class Api extends Controller {
     if (results.isEmpty())
       renderJSON(jsonMapper.writeValueAsString(null));
 
-    final InferenceResultRecord tmpResult = Iterables.get(
-        results, recordNumber, null);
+    final InferenceResultRecord tmpResult = instance
+        .getResultRecord(recordNumber);
 
     if (tmpResult == null)
       error(vehicleId + " result record " + recordNumber
           + " is out-of-bounds");
 
+    if (tmpResult.getPostDistribution() == null)
+      renderJSON(jsonMapper.writeValueAsString(null));
+
     final List<Map<String, Object>> jsonResults = Lists
         .newArrayList();
     for (final Entry<VehicleState> stateEntry : tmpResult
@@ -268,8 +316,8 @@ public class Api extends Controller {
        * Just return the "best" state
        */
 
-      final InferenceResultRecord result = Iterables.get(
-          resultRecords, recordNumber, null);
+      final InferenceResultRecord result = instance
+          .getResultRecord(recordNumber);
 
       if (result == null)
         renderJSON(jsonMapper.writeValueAsString(null));
@@ -278,8 +326,8 @@ public class Api extends Controller {
 
     } else {
 
-      final InferenceResultRecord tmpResult = Iterables.get(
-          resultRecords, recordNumber, null);
+      final InferenceResultRecord tmpResult = instance
+          .getResultRecord(recordNumber);
 
       if (tmpResult == null)
         error(vehicleId + " result record " + recordNumber
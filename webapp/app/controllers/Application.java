@@ -16,6 +16,7 @@ import org.openplans.tools.tracking.impl.Simulation.SimulationParameters;
 import org.openplans.tools.tracking.impl.VehicleState.VehicleStateInitialParameters;
 
 import play.Logger;
+import play.Play;
 import play.mvc.Controller;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
@@ -30,8 +31,20 @@ public class Application extends Controller {
   static ActorSystem system = ActorSystem.create("MySystem");
   static ActorRef simActor = system.actorOf(new Props(
       SimulationActor.class), "simActor");
-  static ActorRef locationActor = system.actorOf(new Props(
-      InferenceService.class), "locationActor");
+  /**
+   * Live observations are sharded over these actors by vehicle id, so each
+   * vehicle's observations arrive in order through one of them.
+   */
+  static final ActorRef[] locationActors = new ActorRef[Integer
+      .parseInt(Play.configuration.getProperty(
+          "inference.locationActors",
+          String.valueOf(Runtime.getRuntime().availableProcessors())))];
+  static {
+    for (int i = 0; i < locationActors.length; i++) {
+      locationActors[i] = system.actorOf(new Props(
+          InferenceService.class), "locationActor" + i);
+    }
+  }
   static ActorRef csvActor = system.actorOf(new Props(
       CsvUploadActor.class), "csvActor");
 
@@ -41,6 +54,11 @@ public class Application extends Controller {
     render(instances);
   }
 
+  static ActorRef getLocationActor(String vehicleId) {
+    return locationActors[(vehicleId.hashCode() & Integer.MAX_VALUE)
+        % locationActors.length];
+  }
+
   public static void instances() {
     final List<InferenceInstance> instances = InferenceService
         .getInferenceInstances();
@@ -0,0 +1,175 @@
+package inference;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Recent observations by the edges they were inferred to be on, over all
+ * vehicles. <br>
+ * Each edge keeps a ring of its most recent observations, allocated the
+ * first time the edge is seen, so memory is bounded by the retention and a
+ * query only looks at its own edge. Edges are guarded by striped locks, as
+ * in {@link org.openplans.tools.tracking.impl.statistics.EdgeSpeedAggregator}.
+ */
+public class EdgeObservationIndex {
+
+  private static class Entry {
+    final String vehicleId;
+    final Coordinate obsPoint;
+
+    Entry(String vehicleId, Coordinate obsPoint) {
+      this.vehicleId = vehicleId;
+      this.obsPoint = obsPoint;
+    }
+  }
+
+  /**
+   * Oldest entry at start, when full.
+   */
+  private static class Ring {
+    final Entry[] entries;
+    int start = 0;
+    int size = 0;
+
+    Ring(int capacity) {
+      entries = new Entry[capacity];
+    }
+
+    void add(Entry entry) {
+      if (size < entries.length) {
+        entries[(start + size) % entries.length] = entry;
+        size++;
+      } else {
+        entries[start] = entry;
+        start = (start + 1) % entries.length;
+      }
+    }
+
+    Entry get(int i) {
+      return entries[(start + i) % entries.length];
+    }
+  }
+
+  /*
+   * Must be a power of two.
+   */
+  private static final int STRIPE_COUNT = 64;
+
+  private final int observationsPerEdge;
+
+  private final Ring[] edgeRings;
+
+  private final Object[] stripes = new Object[STRIPE_COUNT];
+
+  /**
+   * @param observationsPerEdge
+   *          number of most recent observations kept for each edge
+   */
+  public EdgeObservationIndex(int edgeCount, int observationsPerEdge) {
+    Preconditions.checkArgument(edgeCount >= 0);
+    Preconditions.checkArgument(observationsPerEdge > 0);
+    this.observationsPerEdge = observationsPerEdge;
+    this.edgeRings = new Ring[edgeCount];
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Object();
+    }
+  }
+
+  public void add(int edgeId, String vehicleId, Coordinate obsPoint) {
+    Preconditions.checkNotNull(vehicleId);
+    Preconditions.checkNotNull(obsPoint);
+    synchronized (stripeFor(edgeId)) {
+      Ring ring = edgeRings[edgeId];
+      if (ring == null) {
+        ring = new Ring(observationsPerEdge);
+        edgeRings[edgeId] = ring;
+      }
+      ring.add(new Entry(vehicleId, obsPoint));
+    }
+  }
+
+  public void clear() {
+    for (int i = 0; i < edgeRings.length; i++) {
+      synchronized (stripeFor(i)) {
+        edgeRings[i] = null;
+      }
+    }
+  }
+
+  public int getEdgeCount() {
+    return edgeRings.length;
+  }
+
+  /**
+   * The edge's retained observations, oldest first.
+   */
+  public List<Coordinate> getObservations(int edgeId) {
+    return getObservations(edgeId, null);
+  }
+
+  /**
+   * The edge's retained observations for one vehicle, or all vehicles when
+   * vehicleId is null, oldest first.
+   */
+  public List<Coordinate> getObservations(int edgeId, String vehicleId) {
+    synchronized (stripeFor(edgeId)) {
+      final Ring ring = edgeRings[edgeId];
+      if (ring == null)
+        return Collections.emptyList();
+
+      final List<Coordinate> observations = Lists
+          .newArrayListWithCapacity(ring.size);
+      for (int i = 0; i < ring.size; i++) {
+        final Entry entry = ring.get(i);
+        if (vehicleId == null || vehicleId.equals(entry.vehicleId))
+          observations.add(entry.obsPoint);
+      }
+      return observations;
+    }
+  }
+
+  public int getObservationsPerEdge() {
+    return observationsPerEdge;
+  }
+
+  /**
+   * Drops the vehicle's observations from every edge. This visits every
+   * edge seen so far, so it's meant for removing vehicles, not for routine
+   * expiry.
+   */
+  public void removeVehicle(String vehicleId) {
+    for (int i = 0; i < edgeRings.length; i++) {
+      synchronized (stripeFor(i)) {
+        final Ring ring = edgeRings[i];
+        if (ring == null)
+          continue;
+
+        Ring kept = null;
+        for (int j = 0; j < ring.size; j++) {
+          final Entry entry = ring.get(j);
+          if (vehicleId.equals(entry.vehicleId)) {
+            if (kept == null) {
+              kept = new Ring(observationsPerEdge);
+              for (int k = 0; k < j; k++) {
+                kept.add(ring.get(k));
+              }
+            }
+          } else if (kept != null) {
+            kept.add(entry);
+          }
+        }
+        if (kept != null)
+          edgeRings[i] = kept.size > 0 ? kept : null;
+      }
+    }
+  }
+
+  private Object stripeFor(int edgeId) {
+    return stripes[edgeId & (STRIPE_COUNT - 1)];
+  }
+
+}
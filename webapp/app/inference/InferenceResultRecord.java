@@ -89,6 +89,8 @@ public class InferenceResultRecord {
     private final VehicleState state;
     private final Double pathDirection;
     private final OsmSegmentWithVelocity inferredEdge;
+    private final double[] stateMean;
+    private final double[] stateCovariance;
 
     //    private final List<EvaluatedPathInfo> evaluatedPaths;
 
@@ -105,10 +107,37 @@ public class InferenceResultRecord {
       this.inferredEdge = createInferredEdge();
       //      this.evaluatedPaths = createEvaluatedPaths();
       this.filter = filter;
+      this.stateMean = ((DenseVector) vehicleState.getBelief().getMean())
+          .getArray().clone();
+      this.stateCovariance = ((DenseMatrix) vehicleState.getBelief()
+          .getCovariance()).convertToVector().getArray().clone();
+    }
+
+    /**
+     * A result set read back from storage, without its state and filter.
+     */
+    ResultSet(Coordinate meanCoords, Coordinate majorAxisCoords,
+      Coordinate minorAxisCoords,
+      List<OsmSegmentWithVelocity> pathSegments, Double pathDirection,
+      OsmSegmentWithVelocity inferredEdge, double[] stateMean,
+      double[] stateCovariance) {
+      this.meanCoords = meanCoords;
+      this.majorAxisCoords = majorAxisCoords;
+      this.minorAxisCoords = minorAxisCoords;
+      this.pathSegments = pathSegments;
+      this.pathDirection = pathDirection;
+      this.inferredEdge = inferredEdge;
+      this.stateMean = stateMean;
+      this.stateCovariance = stateCovariance;
+      this.state = null;
+      this.filter = null;
     }
 
     @JsonIgnore
     public List<EvaluatedPathInfo> createEvaluatedPaths() {
+      if (this.filter == null || this.state == null)
+        return Collections.emptyList();
+
       List<EvaluatedPathInfo> pathEdgeIds;
       final FilterInformation filterInfo = this.filter
           .getFilterInformation(this.state.getObservation());
@@ -146,8 +175,7 @@ public class InferenceResultRecord {
       final InferredEdge edge = state.getInferredEdge();
       if (edge != InferredEdge.getEmptyEdge()) {
         osmSegment = new OsmSegmentWithVelocity(edge.getEdgeId(), 
-            edge.getGeometry(), edge.getEdge().getName(), edge.getVelocityPrecisionDist()
-            .getLocation());
+            edge.getGeometry(), edge.getEdge().getName(), edge.getVelocityMean());
       } else {
         osmSegment = new OsmSegmentWithVelocity(-1, null, "empty", null);
       }
@@ -196,8 +224,7 @@ public class InferenceResultRecord {
 
     @JsonSerialize
     public double[] getStateCovariance() {
-      return ((DenseMatrix) state.getBelief().getCovariance())
-          .convertToVector().getArray().clone();
+      return stateCovariance;
     }
 
     //    @JsonSerialize
@@ -207,8 +234,7 @@ public class InferenceResultRecord {
 
     @JsonSerialize
     public double[] getStateMean() {
-      return ((DenseVector) state.getBelief().getMean()).getArray()
-          .clone();
+      return stateMean;
     }
 
   }
@@ -237,6 +263,19 @@ public class InferenceResultRecord {
     this.resampleDistribution = priorDist;
   }
 
+  /**
+   * A record read back from storage, without its distributions.
+   */
+  InferenceResultRecord(String time, Coordinate obsCoords,
+    ResultSet actualResults, ResultSet infResults) {
+    this.actualResults = actualResults;
+    this.infResults = infResults;
+    this.observedCoords = obsCoords;
+    this.time = time;
+    this.postDistribution = null;
+    this.resampleDistribution = null;
+  }
+
   @JsonSerialize
   public ResultSet getActualResults() {
     return actualResults;
@@ -384,7 +423,7 @@ public class InferenceResultRecord {
       if (edge.isEmptyEdge())
         continue;
       final double edgeMean = edge.getInferredEdge()
-          .getVelocityPrecisionDist().getLocation();
+          .getVelocityMean();
       final int edgeId = edge.getInferredEdge().getEdgeId() != null ? edge
           .getInferredEdge().getEdgeId() : -1;
       final Geometry geom = edge.isEmptyEdge() ? null : edge.getInferredEdge().getGeometry();
@@ -1,20 +1,27 @@
 package inference;
 
+import java.io.File;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import models.InferenceInstance;
 
 import org.openplans.tools.tracking.impl.Observation;
+import org.openplans.tools.tracking.impl.util.OtpGraph;
 
 import play.Logger;
+import play.Play;
 import akka.actor.UntypedActor;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import controllers.Api;
 
 /**
  * This class is an Actor that responds to LocationRecord messages and
@@ -33,16 +40,58 @@ public class InferenceService extends UntypedActor {
 
     final Observation obs;
     final InferenceInstance ie;
+    final CountDownLatch done;
+    final IngestionLimiter limiter;
 
-    UpdateRunnable(Observation obs, InferenceInstance ie) {
+    UpdateRunnable(Observation obs, InferenceInstance ie,
+      CountDownLatch done, IngestionLimiter limiter) {
       super();
       this.obs = obs;
       this.ie = ie;
+      this.done = done;
+      this.limiter = limiter;
+    }
+
+    /**
+     * Drops this update in favor of a newer one for the same vehicle.
+     */
+    void coalesce() {
+      if (limiter != null)
+        limiter.recordCoalesced(obs.getVehicleId());
+      if (done != null)
+        done.countDown();
+    }
+
+    @Override
+    public void run() {
+      try {
+        ie.update(obs);
+      } finally {
+        if (limiter != null)
+          limiter.release(obs.getVehicleId());
+        if (done != null)
+          done.countDown();
+      }
+    }
+
+  }
+
+  private static class RetireRunnable implements Runnable {
+
+    final VehicleMailbox mailbox;
+    final Runnable cleanup;
+
+    RetireRunnable(VehicleMailbox mailbox, Runnable cleanup) {
+      this.mailbox = mailbox;
+      this.cleanup = cleanup;
     }
 
     @Override
     public void run() {
-      ie.update(obs);
+      if (cleanup != null)
+        cleanup.run();
+      if (mailbox.retireIfIdle())
+        vehicleToMailbox.remove(mailbox.getVehicleId(), mailbox);
     }
 
   }
@@ -63,36 +112,102 @@ public class InferenceService extends UntypedActor {
   private static final ExecutorService executor = Executors
       .newFixedThreadPool(THREAD_COUNT);
 
-  private static final Map<String, InferenceInstance> vehicleToInstance = Maps
+  private static final ConcurrentMap<String, InferenceInstance> vehicleToInstance = Maps
+      .newConcurrentMap();
+
+  /**
+   * Each vehicle's updates go through its own mailbox, so they run in order
+   * and one at a time without tying up pool threads.
+   */
+  private static final ConcurrentMap<String, VehicleMailbox> vehicleToMailbox = Maps
       .newConcurrentMap();
 
   public static INFO_LEVEL defaultInfoLevel = INFO_LEVEL.ALL_RESULTS;
 
+  private static final IngestionLimiter ingestionLimiter = new IngestionLimiter(
+      Integer.parseInt(Play.configuration.getProperty(
+          "inference.ingest.maxPendingPerVehicle", "20")),
+      Integer.parseInt(Play.configuration.getProperty(
+          "inference.ingest.maxPending", "5000")),
+      IngestionLimiter.Policy.valueOf(Play.configuration.getProperty(
+          "inference.ingest.policy", "COALESCE")),
+      Integer.parseInt(Play.configuration.getProperty(
+          "inference.ingest.retryAfterSeconds", "1")));
+
+  private static final int resultMemoryRecords = Integer
+      .parseInt(Play.configuration.getProperty(
+          "inference.results.memoryRecords", "100"));
+
+  private static final File resultSpillDir = new File(
+      Play.configuration.getProperty("inference.results.spillDir",
+          new File(System.getProperty("java.io.tmpdir"),
+              "inference-results").getPath()));
+
+  /**
+   * Recent observations by inferred edge, for
+   * {@link controllers.Api#getObservationsForEdge}.
+   */
+  private static final EdgeObservationIndex edgeObservationIndex = new EdgeObservationIndex(
+      Api.getGraph().getEdgeIndex().getEdgeCount(),
+      Integer.parseInt(Play.configuration.getProperty(
+          "inference.edgeObservations.perEdge", "200")));
+
   /**
-   * See {@link #processRecord}
+   * See {@link #processRecord}. Several of these actors run at once, each
+   * receiving a fixed subset of vehicles, and processRecord is safe to call
+   * concurrently for different vehicles.
    */
   @Override
   public void onReceive(Object location) throws Exception {
-    synchronized (this) {
-      if (location instanceof Observation) {
-        final Observation observation = (Observation) location;
-        processRecord(observation);
+    if (location instanceof Observation) {
+      final Observation observation = (Observation) location;
+      processRecord(observation);
 
-        Logger.info("Message received:  "
+      if (Logger.isDebugEnabled())
+        Logger.debug("Message received:  "
             + observation.getTimestamp().toString());
-      }
     }
-
   }
 
+  /**
+   * Removes every instance. As with {@link #remove}, each is closed once its
+   * queued updates are done.
+   */
   public static void clearInferenceData() {
-    vehicleToInstance.clear();
+    final Set<String> vehicleIds = Sets.newHashSet(vehicleToInstance
+        .keySet());
+    vehicleIds.addAll(vehicleToMailbox.keySet());
+    for (final String vehicleId : vehicleIds) {
+      closeWhenDrained(vehicleId, vehicleToInstance.remove(vehicleId));
+    }
+    edgeObservationIndex.clear();
+  }
+
+  /**
+   * Single-result instances keep only their latest record; the others keep
+   * the configured number of recent records in memory and spill the rest.
+   */
+  public static ResultRecordStore createResultRecordStore(
+    String vehicleId, INFO_LEVEL infoLevel) {
+    final OtpGraph graph = Api.getGraph();
+    if (infoLevel == INFO_LEVEL.SINGLE_RESULT)
+      return new ResultRecordStore(vehicleId, 1, null, graph);
+    return new ResultRecordStore(vehicleId, resultMemoryRecords,
+        resultSpillDir, graph);
+  }
+
+  public static EdgeObservationIndex getEdgeObservationIndex() {
+    return edgeObservationIndex;
   }
 
   public static ExecutorService getExecutor() {
     return executor;
   }
 
+  public static IngestionLimiter getIngestionLimiter() {
+    return ingestionLimiter;
+  }
+
   public static InferenceInstance getInferenceInstance(
     String vehicleId) {
     final InferenceInstance ie = vehicleToInstance.get(vehicleId);
@@ -109,15 +224,37 @@ public class InferenceService extends UntypedActor {
 
     if (ie == null) {
       ie = new InferenceInstance(vehicleId, isSimulation, infoLevel);
-      vehicleToInstance.put(vehicleId, ie);
+      final InferenceInstance existing = vehicleToInstance.putIfAbsent(
+          vehicleId, ie);
+      if (existing != null)
+        ie = existing;
     }
 
     return ie;
   }
 
+  private static VehicleMailbox getOrCreateMailbox(String vehicleId) {
+    VehicleMailbox mailbox = vehicleToMailbox.get(vehicleId);
+
+    if (mailbox == null) {
+      mailbox = new VehicleMailbox(vehicleId, executor);
+      final VehicleMailbox existing = vehicleToMailbox.putIfAbsent(
+          vehicleId, mailbox);
+      if (existing != null)
+        mailbox = existing;
+    }
+
+    return mailbox;
+  }
+
   /**
    * This will process a record for an already existing
-   * {@link #InferenceInstance}, or it will create a new one.
+   * {@link #InferenceInstance}, or it will create a new one. The update is
+   * queued on the vehicle's mailbox, so this never blocks. <br>
+   * The observation must have been admitted by
+   * {@link #getIngestionLimiter()}, and is released once processed. Under
+   * the coalescing policy, the vehicle's oldest queued updates are dropped
+   * to keep its mailbox within the per-vehicle limit.
    * 
    * @param observation
    */
@@ -125,26 +262,102 @@ public class InferenceService extends UntypedActor {
 
     final InferenceInstance ie = getOrCreateInferenceInstance(
         observation.getVehicleId(), false, defaultInfoLevel);
+    final UpdateRunnable update = new UpdateRunnable(observation, ie,
+        null, ingestionLimiter);
+
+    while (true) {
+      final VehicleMailbox mailbox = getOrCreateMailbox(observation
+          .getVehicleId());
+
+      if (ingestionLimiter.getPolicy() == IngestionLimiter.Policy.COALESCE) {
+        while (mailbox.size() >= ingestionLimiter
+            .getMaxPendingPerVehicle()) {
+          /*
+           * Other tasks, i.e. retiring, stay where they are.
+           */
+          final UpdateRunnable stale = mailbox
+              .pollOldest(UpdateRunnable.class);
+          if (stale == null)
+            break;
+          stale.coalesce();
+        }
+      }
 
-    executor.execute(new UpdateRunnable(observation, ie));
+      if (mailbox.post(update))
+        return;
+      vehicleToMailbox.remove(observation.getVehicleId(), mailbox);
+    }
   }
 
+  /**
+   * Queues the observations on their vehicles' mailboxes, in list order per
+   * vehicle, and waits until they've all been processed.
+   */
   public static void processRecords(List<Observation> observations,
     INFO_LEVEL level) throws InterruptedException {
 
-    final List<Callable<Object>> tasks = Lists.newArrayList();
+    final CountDownLatch done = new CountDownLatch(observations.size());
     for (final Observation obs : observations) {
       final InferenceInstance ie = getOrCreateInferenceInstance(
           obs.getVehicleId(), false, level);
-      tasks.add(Executors.callable(new UpdateRunnable(obs, ie)));
+      post(obs.getVehicleId(), new UpdateRunnable(obs, ie, done, null));
     }
 
-    executor.invokeAll(tasks);
+    done.await();
   }
 
+  /**
+   * Removes the vehicle's instance. Updates already queued for it still
+   * run, so the instance is closed, and its mailbox retired, only once
+   * they're done; updates posted in the meantime go to the same mailbox and
+   * a new instance.
+   */
   public static void remove(String name) {
-    vehicleToInstance.remove(name);
+    final InferenceInstance ie = vehicleToInstance.remove(name);
+    ingestionLimiter.remove(name);
     Observation.remove(name);
+    closeWhenDrained(name, ie);
+  }
+
+  /**
+   * Closes the instance, if any, and drops the vehicle's indexed
+   * observations after its queued updates, then retires its mailbox.
+   */
+  private static void closeWhenDrained(final String vehicleId,
+    final InferenceInstance ie) {
+    retireMailbox(vehicleId, new Runnable() {
+      @Override
+      public void run() {
+        if (ie != null)
+          ie.close();
+        edgeObservationIndex.removeVehicle(vehicleId);
+      }
+    });
+  }
+
+  /**
+   * Posts to the vehicle's mailbox, replacing it if it's been retired.
+   */
+  static void post(String vehicleId, Runnable task) {
+    while (true) {
+      final VehicleMailbox mailbox = getOrCreateMailbox(vehicleId);
+      if (mailbox.post(task))
+        return;
+      vehicleToMailbox.remove(vehicleId, mailbox);
+    }
+  }
+
+  /**
+   * Runs cleanup, if any, after the vehicle's queued tasks, then retires its
+   * mailbox unless more tasks have been posted since.
+   */
+  private static void retireMailbox(String vehicleId, Runnable cleanup) {
+    while (true) {
+      final VehicleMailbox mailbox = getOrCreateMailbox(vehicleId);
+      if (mailbox.post(new RetireRunnable(mailbox, cleanup)))
+        return;
+      vehicleToMailbox.remove(vehicleId, mailbox);
+    }
   }
 
 }
@@ -0,0 +1,231 @@
+package inference;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Admission control for live observations. <br>
+ * Every admitted observation counts as pending, per vehicle and globally,
+ * from the time it's accepted over HTTP until its update finishes or it's
+ * coalesced away. Once a limit is reached the {@link Policy} decides what
+ * happens to new observations.
+ */
+public class IngestionLimiter {
+
+  public enum Decision {
+    /**
+     * Queue the observation.
+     */
+    ACCEPT,
+    /**
+     * Queue the observation in place of the vehicle's oldest pending one.
+     */
+    COALESCE,
+    /**
+     * Discard the observation, but don't push back on the caller.
+     */
+    DROP,
+    /**
+     * Discard the observation and tell the caller to retry later.
+     */
+    REJECT
+  }
+
+  public enum Policy {
+    /**
+     * Reject new observations while over either limit.
+     */
+    REJECT,
+    /**
+     * Replace a vehicle's stale pending observations with newer ones while
+     * it's over its limit; reject when over the global limit.
+     */
+    COALESCE,
+    /**
+     * Silently drop new observations while over either limit.
+     */
+    DROP_NEWEST
+  }
+
+  public static class Stats {
+    private final long accepted;
+    private final long coalesced;
+    private final long dropped;
+    private final long rejected;
+    private final int pending;
+
+    private Stats(long accepted, long coalesced, long dropped,
+      long rejected, int pending) {
+      this.accepted = accepted;
+      this.coalesced = coalesced;
+      this.dropped = dropped;
+      this.rejected = rejected;
+      this.pending = pending;
+    }
+
+    public long getAccepted() {
+      return accepted;
+    }
+
+    public long getCoalesced() {
+      return coalesced;
+    }
+
+    public long getDropped() {
+      return dropped;
+    }
+
+    public int getPending() {
+      return pending;
+    }
+
+    public long getRejected() {
+      return rejected;
+    }
+  }
+
+  private final int maxPendingPerVehicle;
+  private final int maxPending;
+  private final Policy policy;
+  private final int retryAfterSeconds;
+
+  private final AtomicInteger pending = new AtomicInteger();
+  private final ConcurrentMap<String, AtomicInteger> vehiclePending = Maps
+      .newConcurrentMap();
+
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  public IngestionLimiter(int maxPendingPerVehicle, int maxPending,
+    Policy policy, int retryAfterSeconds) {
+    Preconditions.checkArgument(maxPendingPerVehicle > 0);
+    Preconditions.checkArgument(maxPending >= maxPendingPerVehicle);
+    Preconditions.checkArgument(retryAfterSeconds > 0);
+    this.maxPendingPerVehicle = maxPendingPerVehicle;
+    this.maxPending = maxPending;
+    this.policy = Preconditions.checkNotNull(policy);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public int getMaxPending() {
+    return maxPending;
+  }
+
+  public int getMaxPendingPerVehicle() {
+    return maxPendingPerVehicle;
+  }
+
+  public int getPending(String vehicleId) {
+    final AtomicInteger count = vehiclePending.get(vehicleId);
+    return count == null ? 0 : count.get();
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  public Stats getStats() {
+    return new Stats(accepted.get(), coalesced.get(), dropped.get(),
+        rejected.get(), pending.get());
+  }
+
+  /**
+   * Marks one of the vehicle's pending observations as replaced by a newer
+   * one.
+   */
+  public void recordCoalesced(String vehicleId) {
+    coalesced.incrementAndGet();
+    release(vehicleId);
+  }
+
+  /**
+   * Marks one of the vehicle's pending observations as done.
+   */
+  public void release(String vehicleId) {
+    final AtomicInteger count = vehiclePending.get(vehicleId);
+    if (count != null)
+      count.decrementAndGet();
+    pending.decrementAndGet();
+  }
+
+  public void remove(String vehicleId) {
+    vehiclePending.remove(vehicleId);
+  }
+
+  /**
+   * Decides what to do with a new observation for the vehicle. ACCEPT and
+   * COALESCE both count the observation as pending, and the caller must
+   * {@link #release} it once processed.
+   */
+  public Decision tryAcquire(String vehicleId) {
+    final AtomicInteger vehicleCount = getVehicleCount(vehicleId);
+
+    if (!increment(pending, maxPending)) {
+      return shed(policy == Policy.DROP_NEWEST ? Decision.DROP
+          : Decision.REJECT);
+    }
+
+    if (increment(vehicleCount, maxPendingPerVehicle)) {
+      accepted.incrementAndGet();
+      return Decision.ACCEPT;
+    }
+
+    if (policy == Policy.COALESCE) {
+      /*
+       * The vehicle's queue gets trimmed back to its limit when this one is
+       * queued.
+       */
+      vehicleCount.incrementAndGet();
+      accepted.incrementAndGet();
+      return Decision.COALESCE;
+    }
+
+    pending.decrementAndGet();
+    return shed(policy == Policy.DROP_NEWEST ? Decision.DROP
+        : Decision.REJECT);
+  }
+
+  private AtomicInteger getVehicleCount(String vehicleId) {
+    AtomicInteger count = vehiclePending.get(vehicleId);
+    if (count == null) {
+      count = new AtomicInteger();
+      final AtomicInteger existing = vehiclePending.putIfAbsent(
+          vehicleId, count);
+      if (existing != null)
+        count = existing;
+    }
+    return count;
+  }
+
+  private Decision shed(Decision decision) {
+    if (decision == Decision.DROP)
+      dropped.incrementAndGet();
+    else
+      rejected.incrementAndGet();
+    return decision;
+  }
+
+  /**
+   * Increments the count if it's below the limit.
+   */
+  private static boolean increment(AtomicInteger count, int limit) {
+    while (true) {
+      final int current = count.get();
+      if (current >= limit)
+        return false;
+      if (count.compareAndSet(current, current + 1))
+        return true;
+    }
+  }
+
+}
@@ -0,0 +1,548 @@
+package inference;
+
+import inference.InferenceResultRecord.ResultSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.openplans.tools.tracking.impl.graph.InferredEdge;
+import org.openplans.tools.tracking.impl.util.OtpGraph;
+
+import play.Logger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A vehicle's result records, in the order they were added. <br>
+ * The most recent records are kept in memory as they are. Older ones are
+ * either dropped or, when there's a spill directory, written to append-only
+ * segment files in a compact binary form and read back through memory
+ * maps. Files grow, and are mapped, a window at a time, so reading the
+ * latest spilled records doesn't map the file again for each one. <br>
+ * Records are found by index in constant time. Reads don't lock: the store
+ * is meant to be appended to by one thread, the vehicle's updater, while
+ * any number of others read it. <br>
+ * Spilled records keep what the JSON views of a record need: coordinates,
+ * path and inferred edges, and the state mean and covariance. Their belief
+ * distributions, states and filters are gone, and edge geometries and names
+ * are looked up again in the graph when they're read.
+ */
+public class ResultRecordStore extends AbstractList<InferenceResultRecord> {
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) {
+      if (len == 0)
+        return 0;
+      if (!buffer.hasRemaining())
+        return -1;
+      final int n = Math.min(len, buffer.remaining());
+      buffer.get(bytes, off, n);
+      return n;
+    }
+
+  }
+
+  private static class Segment {
+    final File file;
+    final RandomAccessFile raf;
+    final FileChannel channel;
+    volatile int length = 0;
+
+    /**
+     * Allocated file length, a whole number of windows.
+     */
+    volatile int capacity = 0;
+    volatile Window window;
+
+    Segment(File file) throws IOException {
+      this.file = file;
+      this.raf = new RandomAccessFile(file, "rw");
+      this.channel = raf.getChannel();
+    }
+
+    void close() {
+      try {
+        raf.close();
+      } catch (final IOException ex) {
+        Logger.error(ex, "could not close %s", file);
+      }
+      window = null;
+      file.delete();
+    }
+  }
+
+  /**
+   * A mapped region of a segment file.
+   */
+  private static class Window {
+    final int start;
+    final MappedByteBuffer map;
+
+    Window(int start, MappedByteBuffer map) {
+      this.start = start;
+      this.map = map;
+    }
+
+    boolean covers(int offset, int length) {
+      return offset >= start && offset + length <= start + map.limit();
+    }
+  }
+
+  /**
+   * A record in the in-memory ring, tagged with its record number so readers
+   * can tell when it's been overwritten.
+   */
+  private static class Slot {
+    final int recordNumber;
+    final InferenceResultRecord record;
+
+    Slot(int recordNumber, InferenceResultRecord record) {
+      this.recordNumber = recordNumber;
+      this.record = record;
+    }
+  }
+
+  /**
+   * Segment files are rolled over at this size, which keeps every offset in
+   * an int and every segment mappable.
+   */
+  private static final int SEGMENT_BYTES = 1 << 26;
+
+  /**
+   * Segment files are grown and mapped in windows of this size. A mapping
+   * spans two windows, so any record up to a window long that starts in the
+   * first is covered.
+   */
+  private static final int WINDOW_BYTES = 1 << 20;
+
+  /**
+   * The spill index is allocated in chunks of this many records, so it grows
+   * without copying entries that readers may be looking at.
+   */
+  private static final int INDEX_CHUNK = 1 << 12;
+
+  private final String vehicleId;
+  private final OtpGraph graph;
+  private final File spillDir;
+  private final int segmentBytes;
+  private final int windowBytes;
+
+  private final AtomicReferenceArray<Slot> recent;
+
+  /**
+   * Written last when a record is added, which publishes the record and
+   * anything spilled to make room for it.
+   */
+  private volatile int total = 0;
+
+  /**
+   * Segment index in the high int, byte offset in the low int, by record
+   * number, in chunks.
+   */
+  private volatile long[][] spillIndex = new long[0][];
+  private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+  private volatile boolean closed = false;
+
+  /**
+   * @param recentRecords
+   *          number of records kept in memory
+   * @param spillDir
+   *          where older records are written, or null to drop them
+   * @param graph
+   *          resolves the edges of spilled records
+   */
+  public ResultRecordStore(String vehicleId, int recentRecords,
+    File spillDir, OtpGraph graph) {
+    this(vehicleId, recentRecords, spillDir, graph, SEGMENT_BYTES);
+  }
+
+  /**
+   * @param segmentBytes
+   *          size at which segment files are rolled over
+   */
+  ResultRecordStore(String vehicleId, int recentRecords, File spillDir,
+    OtpGraph graph, int segmentBytes) {
+    Preconditions.checkArgument(recentRecords > 0);
+    Preconditions.checkArgument(segmentBytes > 0);
+    this.vehicleId = vehicleId;
+    this.recent = new AtomicReferenceArray<Slot>(recentRecords);
+    this.spillDir = spillDir;
+    this.graph = graph;
+    this.segmentBytes = segmentBytes;
+    this.windowBytes = Math.min(WINDOW_BYTES, segmentBytes);
+  }
+
+  /**
+   * Appends the record, spilling or dropping the oldest in-memory one when
+   * the ring is full. Adds are serialized, but a store should have a single
+   * writer anyway.
+   */
+  @Override
+  public synchronized boolean add(InferenceResultRecord record) {
+    Preconditions.checkNotNull(record);
+    final int recordNumber = total;
+    final int slot = recordNumber % recent.length();
+    final Slot evicted = recent.get(slot);
+    if (evicted != null && spillDir != null)
+      spill(evicted.recordNumber, evicted.record);
+    recent.set(slot, new Slot(recordNumber, record));
+    total = recordNumber + 1;
+    return true;
+  }
+
+  /**
+   * Deletes the spill files. Records added afterwards are still kept in
+   * memory, but older ones are no longer readable.
+   */
+  public synchronized void close() {
+    closed = true;
+    for (final Segment segment : segments) {
+      segment.close();
+    }
+  }
+
+  /**
+   * Like {@link #get(int)}, but returns null when the index is out of
+   * bounds.
+   */
+  public InferenceResultRecord find(int index) {
+    if (index < 0)
+      return null;
+
+    while (true) {
+      final int current = total;
+      final int recordNumber = index + getFirstRecordNumber(current);
+      if (recordNumber >= current)
+        return null;
+
+      if (recordNumber < current - recent.length())
+        return readSpilled(recordNumber);
+
+      final Slot slot = recent.get(recordNumber % recent.length());
+      if (slot != null && slot.recordNumber == recordNumber)
+        return slot.record;
+
+      /*
+       * Overwritten since total was read. It was spilled first, if it was
+       * spilled at all; otherwise the index now refers to a newer record.
+       */
+      if (spillDir != null)
+        return readSpilled(recordNumber);
+    }
+  }
+
+  /**
+   * Returns the record at the index, counting from the oldest record that's
+   * still available, or null when it was spilled and can't be read back.
+   */
+  @Override
+  public InferenceResultRecord get(int index) {
+    final int size = size();
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("index " + index
+          + ", size " + size);
+    return find(index);
+  }
+
+  /**
+   * Record number of index 0, i.e. the number of records dropped so far.
+   */
+  public int getFirstRecordNumber() {
+    return getFirstRecordNumber(total);
+  }
+
+  public int getRecentCapacity() {
+    return recent.length();
+  }
+
+  /**
+   * Number of records added over the store's lifetime.
+   */
+  public int getTotalRecords() {
+    return total;
+  }
+
+  public String getVehicleId() {
+    return vehicleId;
+  }
+
+  @Override
+  public int size() {
+    final int current = total;
+    return current - getFirstRecordNumber(current);
+  }
+
+  private int getFirstRecordNumber(int current) {
+    return spillDir != null ? 0 : Math.max(0, current - recent.length());
+  }
+
+  private InferenceResultRecord readSpilled(int recordNumber) {
+    final long[] chunk = spillIndex[recordNumber / INDEX_CHUNK];
+    final long location = chunk[recordNumber % INDEX_CHUNK];
+    if (location < 0 || closed)
+      return null;
+
+    final Segment segment = segments.get((int) (location >>> 32));
+    final int offset = (int) location;
+    try {
+      Window window = segment.window;
+      if (window == null || !window.covers(offset, 4))
+        window = mapWindow(segment, offset);
+      final int length = window.map.getInt(offset - window.start);
+
+      if (!window.covers(offset, 4 + length) && 4 + length <= windowBytes)
+        window = mapWindow(segment, offset);
+
+      final ByteBuffer buffer;
+      if (window.covers(offset, 4 + length)) {
+        buffer = window.map.duplicate();
+        buffer.position(offset - window.start + 4);
+      } else {
+        /*
+         * Longer than a window, so map it on its own.
+         */
+        buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY,
+            offset + 4, length);
+      }
+      buffer.limit(buffer.position() + length);
+      return readRecord(new DataInputStream(new ByteBufferInputStream(
+          buffer)));
+    } catch (final IOException ex) {
+      Logger.error(ex, "could not read result %s for %s",
+          recordNumber, vehicleId);
+      return null;
+    }
+  }
+
+  /**
+   * Maps the two windows starting with the one containing offset, or as
+   * much of them as has been allocated, and makes that the segment's
+   * current mapping.
+   */
+  private Window mapWindow(Segment segment, int offset)
+      throws IOException {
+    final int start = offset / windowBytes * windowBytes;
+    final int size = Math.min(segment.capacity - start, 2 * windowBytes);
+    final Window window = new Window(start, segment.channel.map(
+        FileChannel.MapMode.READ_ONLY, start, size));
+    segment.window = window;
+    return window;
+  }
+
+  private InferenceResultRecord readRecord(DataInputStream in)
+      throws IOException {
+    final String time = in.readUTF();
+    final Coordinate observedCoords = readCoordinate(in);
+    final ResultSet actualResults = readResultSet(in);
+    final ResultSet infResults = readResultSet(in);
+    return new InferenceResultRecord(time, observedCoords,
+        actualResults, infResults);
+  }
+
+  private ResultSet readResultSet(DataInputStream in)
+      throws IOException {
+    if (!in.readBoolean())
+      return null;
+
+    final Coordinate meanCoords = readCoordinate(in);
+    final Coordinate majorAxisCoords = readCoordinate(in);
+    final Coordinate minorAxisCoords = readCoordinate(in);
+    final Double pathDirection = in.readBoolean() ? in.readDouble()
+        : null;
+    final OsmSegmentWithVelocity inferredEdge = readSegment(in);
+    final int numSegments = in.readInt();
+    final List<OsmSegmentWithVelocity> pathSegments = Lists
+        .newArrayListWithCapacity(numSegments);
+    for (int i = 0; i < numSegments; i++) {
+      pathSegments.add(readSegment(in));
+    }
+    final double[] stateMean = readDoubles(in);
+    final double[] stateCovariance = readDoubles(in);
+
+    return new ResultSet(meanCoords, majorAxisCoords, minorAxisCoords,
+        pathSegments, pathDirection, inferredEdge, stateMean,
+        stateCovariance);
+  }
+
+  private OsmSegmentWithVelocity readSegment(DataInputStream in)
+      throws IOException {
+    final int edgeId = in.readInt();
+    final Double velocity = in.readBoolean() ? in.readDouble() : null;
+    if (edgeId < 0)
+      return new OsmSegmentWithVelocity(edgeId, null, "empty",
+          velocity);
+
+    final InferredEdge edge = graph != null ? graph
+        .getInferredEdge(edgeId) : null;
+    if (edge == null)
+      return new OsmSegmentWithVelocity(edgeId, null, null, velocity);
+
+    return new OsmSegmentWithVelocity(edgeId, edge.getGeometry(), edge
+        .getEdge().getName(), velocity);
+  }
+
+  private void spill(int recordNumber, InferenceResultRecord record) {
+    final int chunk = recordNumber / INDEX_CHUNK;
+    long[][] index = spillIndex;
+    if (chunk >= index.length) {
+      index = Arrays.copyOf(index, Math.max(16, 2 * index.length));
+      spillIndex = index;
+    }
+    if (index[chunk] == null)
+      index[chunk] = new long[INDEX_CHUNK];
+
+    final int entry = recordNumber % INDEX_CHUNK;
+    index[chunk][entry] = -1l;
+
+    if (closed)
+      return;
+
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+      writeRecord(new DataOutputStream(bytes), record);
+
+      final int length = 4 + bytes.size();
+      Segment segment = segments.isEmpty() ? null : segments
+          .get(segments.size() - 1);
+      if (segment == null
+          || (segment.length > 0 && segment.length + length > segmentBytes)) {
+        spillDir.mkdirs();
+        final File file = File.createTempFile("results-", ".bin",
+            spillDir);
+        file.deleteOnExit();
+        segment = new Segment(file);
+        segments.add(segment);
+      }
+
+      final int offset = segment.length;
+      if (offset + length > segment.capacity) {
+        final int capacity = (int) (((long) offset + length
+            + windowBytes - 1) / windowBytes * windowBytes);
+        segment.raf.setLength(capacity);
+        segment.capacity = capacity;
+      }
+
+      final ByteBuffer buffer = ByteBuffer.allocate(length);
+      buffer.putInt(bytes.size());
+      buffer.put(bytes.toByteArray());
+      buffer.flip();
+      long position = offset;
+      while (buffer.hasRemaining()) {
+        position += segment.channel.write(buffer, position);
+      }
+
+      segment.length = (int) position;
+      index[chunk][entry] = ((long) (segments.size() - 1) << 32)
+          | offset;
+    } catch (final IOException ex) {
+      Logger.error(ex, "could not spill result %s for %s",
+          recordNumber, vehicleId);
+    }
+  }
+
+  private static Coordinate readCoordinate(DataInputStream in)
+      throws IOException {
+    if (!in.readBoolean())
+      return null;
+    return new Coordinate(in.readDouble(), in.readDouble());
+  }
+
+  private static double[] readDoubles(DataInputStream in)
+      throws IOException {
+    final int length = in.readInt();
+    if (length < 0)
+      return null;
+    final double[] values = new double[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = in.readDouble();
+    }
+    return values;
+  }
+
+  private static void writeCoordinate(DataOutputStream out,
+    Coordinate coord) throws IOException {
+    out.writeBoolean(coord != null);
+    if (coord != null) {
+      out.writeDouble(coord.x);
+      out.writeDouble(coord.y);
+    }
+  }
+
+  private static void writeDoubles(DataOutputStream out,
+    double[] values) throws IOException {
+    out.writeInt(values != null ? values.length : -1);
+    if (values != null) {
+      for (final double value : values) {
+        out.writeDouble(value);
+      }
+    }
+  }
+
+  private static void writeRecord(DataOutputStream out,
+    InferenceResultRecord record) throws IOException {
+    out.writeUTF(record.getTime());
+    writeCoordinate(out, record.getObservedCoords());
+    writeResultSet(out, record.getActualResults());
+    writeResultSet(out, record.getInfResults());
+    out.flush();
+  }
+
+  private static void writeResultSet(DataOutputStream out,
+    ResultSet results) throws IOException {
+    out.writeBoolean(results != null);
+    if (results == null)
+      return;
+
+    writeCoordinate(out, results.getMeanCoords());
+    writeCoordinate(out, results.getMajorAxisCoords());
+    writeCoordinate(out, results.getMinorAxisCoords());
+    out.writeBoolean(results.getPathDirection() != null);
+    if (results.getPathDirection() != null)
+      out.writeDouble(results.getPathDirection());
+    writeSegment(out, results.getInferredEdge());
+    out.writeInt(results.getPathSegments().size());
+    for (final OsmSegmentWithVelocity segment : results
+        .getPathSegments()) {
+      writeSegment(out, segment);
+    }
+    writeDoubles(out, results.getStateMean());
+    writeDoubles(out, results.getStateCovariance());
+  }
+
+  private static void writeSegment(DataOutputStream out,
+    OsmSegmentWithVelocity segment) throws IOException {
+    out.writeInt(segment.getId());
+    out.writeBoolean(segment.getVelocity() != null);
+    if (segment.getVelocity() != null)
+      out.writeDouble(segment.getVelocity());
+  }
+
+}
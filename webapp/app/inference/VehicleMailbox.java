@@ -0,0 +1,136 @@
+package inference;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import play.Logger;
+
+/**
+ * A serial queue of tasks for one vehicle, run on a shared executor. <br>
+ * Tasks run one at a time and in the order they were posted, but posting
+ * never blocks: the mailbox schedules itself on the executor when it has
+ * work and isn't already scheduled, so at most one pool thread is ever
+ * working on a vehicle. After a batch of tasks the mailbox goes to the back
+ * of the executor's queue, so a busy vehicle can't starve the others. <br>
+ * A mailbox can be retired once it's drained, after which it refuses new
+ * tasks, so there's never more than one live mailbox for a vehicle.
+ */
+public class VehicleMailbox implements Runnable {
+
+  private static final int MAX_BATCH = 32;
+
+  private final String vehicleId;
+  private final Executor executor;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  /*
+   * The queue's own size() walks it.
+   */
+  private final AtomicInteger size = new AtomicInteger();
+
+  /*
+   * Guarded by this.
+   */
+  private boolean retired = false;
+
+  public VehicleMailbox(String vehicleId, Executor executor) {
+    this.vehicleId = vehicleId;
+    this.executor = executor;
+  }
+
+  public String getVehicleId() {
+    return vehicleId;
+  }
+
+  public boolean isEmpty() {
+    return tasks.isEmpty();
+  }
+
+  /**
+   * Removes the oldest task of the given type that hasn't started yet, or
+   * returns null. Other tasks keep their places.
+   */
+  public <T extends Runnable> T pollOldest(Class<T> type) {
+    for (final Runnable task : tasks) {
+      if (type.isInstance(task) && tasks.remove(task)) {
+        size.decrementAndGet();
+        return type.cast(task);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Queues the task, unless this mailbox has been retired.
+   * 
+   * @return false if the mailbox was retired and the task wasn't queued
+   */
+  public boolean post(Runnable task) {
+    synchronized (this) {
+      if (retired)
+        return false;
+      tasks.add(task);
+      size.incrementAndGet();
+    }
+    schedule();
+    return true;
+  }
+
+  /**
+   * Retires this mailbox if it has no queued tasks. Only call this from a
+   * task running on this mailbox, so that nothing else is running either.
+   * 
+   * @return true if the mailbox was retired
+   */
+  public synchronized boolean retireIfIdle() {
+    if (!tasks.isEmpty())
+      return false;
+    retired = true;
+    return true;
+  }
+
+  @Override
+  public void run() {
+    try {
+      for (int i = 0; i < MAX_BATCH; i++) {
+        final Runnable task = tasks.poll();
+        if (task == null)
+          break;
+        size.decrementAndGet();
+        try {
+          task.run();
+        } catch (final RuntimeException ex) {
+          Logger.error(ex, "update failed for %s", vehicleId);
+        }
+      }
+    } finally {
+      scheduled.set(false);
+      /*
+       * Tasks left over from a full batch, or posted after the last poll
+       * but before the flag was cleared, haven't scheduled us.
+       */
+      if (!tasks.isEmpty())
+        schedule();
+    }
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(this);
+      } catch (final RuntimeException ex) {
+        scheduled.set(false);
+        throw ex;
+      }
+    }
+  }
+
+}
@@ -4,13 +4,15 @@ import gov.sandia.cognition.math.MutableDouble;
 import gov.sandia.cognition.math.RingAccumulator;
 import gov.sandia.cognition.math.matrix.VectorFactory;
 import gov.sandia.cognition.statistics.DataDistribution;
+import inference.EdgeObservationIndex;
 import inference.InferenceResultRecord;
+import inference.InferenceService;
 import inference.InferenceService.INFO_LEVEL;
+import inference.ResultRecordStore;
 
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.openplans.tools.tracking.impl.Observation;
@@ -23,6 +25,7 @@ import org.openplans.tools.tracking.impl.statistics.VehicleTrackingPLFilter;
 import org.openplans.tools.tracking.impl.util.OtpGraph;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Sets;
 
 import controllers.Api;
 
@@ -45,12 +48,17 @@ public class InferenceInstance {
 
   private VehicleTrackingFilter<Observation, VehicleState> filter;
 
-  private final Queue<InferenceResultRecord> resultRecords = new ConcurrentLinkedQueue<InferenceResultRecord>();
+  private final ResultRecordStore resultRecords;
 
   private DataDistribution<VehicleState> postBelief;
   private DataDistribution<VehicleState> resampleBelief;
   private VehicleState bestState;
 
+  /**
+   * The last observation the filter processed.
+   */
+  private Observation lastObservation;
+
   private final VehicleStateInitialParameters initialParameters;
 
   public int totalRecords = 0;
@@ -75,6 +83,8 @@ public class InferenceInstance {
     this.vehicleId = vehicleId;
     this.isSimulation = isSimulation;
     this.infoLevel = infoLevel;
+    this.resultRecords = InferenceService.createResultRecordStore(
+        vehicleId, infoLevel);
   }
 
   public InferenceInstance(String vehicleId, boolean isSimulation,
@@ -84,6 +94,15 @@ public class InferenceInstance {
     this.isSimulation = isSimulation;
     this.simSeed = parameters.getSeed();
     this.infoLevel = infoLevel;
+    this.resultRecords = InferenceService.createResultRecordStore(
+        vehicleId, infoLevel);
+  }
+
+  /**
+   * Releases the files behind the result records.
+   */
+  public void close() {
+    resultRecords.close();
   }
 
   public RingAccumulator<MutableDouble> getAverager() {
@@ -98,6 +117,14 @@ public class InferenceInstance {
     return filter;
   }
 
+  /**
+   * The last observation the filter processed, linked to the one it
+   * processed before.
+   */
+  public Observation getLastObservation() {
+    return lastObservation;
+  }
+
   public INFO_LEVEL getInfoLevel() {
     return infoLevel;
   }
@@ -118,8 +145,20 @@ public class InferenceInstance {
     return this.resampleBelief;
   }
 
-  public Collection<InferenceResultRecord> getResultRecords() {
-    return Collections.unmodifiableCollection(this.resultRecords);
+  /**
+   * Returns the result record at the index, in constant time, or null when
+   * it's out of bounds. In single-result mode index 0 is the latest record.
+   */
+  public InferenceResultRecord getResultRecord(int index) {
+    return resultRecords.find(index);
+  }
+
+  /**
+   * The oldest records may have been spilled to disk, in which case they're
+   * read back without their belief distributions.
+   */
+  public List<InferenceResultRecord> getResultRecords() {
+    return Collections.unmodifiableList(this.resultRecords);
   }
 
   public long getSimSeed() {
@@ -138,24 +177,28 @@ public class InferenceInstance {
     return isSimulation;
   }
 
-  synchronized public void update(Observation obs) {
+  /**
+   * Not thread-safe: updates for a vehicle must be serial, which
+   * {@link inference.VehicleMailbox} guarantees for live observations.
+   */
+  public void update(Observation observation) {
 
+    final Observation obs = linkToLastObservation(observation);
     updateFilter(obs);
     this.recordsProcessed++;
 
     final InferenceResultRecord infResult = InferenceResultRecord
         .createInferenceResultRecord(obs, this);
 
-    if (infoLevel == INFO_LEVEL.SINGLE_RESULT
-        && !this.resultRecords.isEmpty())
-      this.resultRecords.poll();
-
     this.resultRecords.add(infResult);
+    indexObservation(obs);
   }
 
-  public void update(VehicleState actualState, Observation obs,
+  public void update(VehicleState actualState, Observation observation,
     boolean performInference) {
 
+    final Observation obs = linkToLastObservation(observation);
+
     if (performInference) {
       updateFilter(obs);
     }
@@ -168,14 +211,43 @@ public class InferenceInstance {
             postBelief.clone(),
             resampleBelief != null ? resampleBelief.clone() : null);
 
-    if (infoLevel == INFO_LEVEL.SINGLE_RESULT
-        && !this.resultRecords.isEmpty())
-      this.resultRecords.poll();
-
     this.resultRecords.add(result);
+    /*
+     * Without inference the posterior is still the previous observation's.
+     */
+    if (performInference)
+      indexObservation(obs);
+  }
+
+  /**
+   * Adds the observation to the edge index under each edge the posterior
+   * puts it on.
+   */
+  private void indexObservation(Observation obs) {
+    if (postBelief == null)
+      return;
+
+    final EdgeObservationIndex index = InferenceService
+        .getEdgeObservationIndex();
+    final Set<Integer> edgeIds = Sets.newHashSet();
+    for (final VehicleState state : postBelief.getDomain()) {
+      final Integer edgeId = state.getInferredEdge().getEdgeId();
+      if (edgeId != null && edgeIds.add(edgeId))
+        index.add(edgeId, vehicleId, obs.getObsPoint());
+    }
+  }
+
+  /**
+   * The observation, linked to the last one this instance processed. Queued
+   * observations can be coalesced away before they're processed, so the one
+   * registered before this one isn't necessarily the one the filter saw.
+   */
+  private Observation linkToLastObservation(Observation obs) {
+    lastObservation = obs.withPreviousObservation(lastObservation);
+    return lastObservation;
   }
 
-  synchronized private void updateFilter(Observation obs) {
+  private void updateFilter(Observation obs) {
 
     final Stopwatch watch = new Stopwatch();
     watch.start();
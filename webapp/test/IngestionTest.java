@@ -0,0 +1,58 @@
+import inference.IngestionLimiter;
+import inference.InferenceService;
+
+import org.junit.After;
+import org.junit.Test;
+
+import play.mvc.Http.Response;
+import play.test.FunctionalTest;
+
+/**
+ * Live observations posted past the ingestion limits. The test
+ * configuration allows two pending observations in total.
+ */
+public class IngestionTest extends FunctionalTest {
+
+  private static final String VEHICLE_ID = "ingestion-test";
+  private static final String OTHER_VEHICLE_ID = "ingestion-test-other";
+
+  @After
+  public void tearDown() {
+    InferenceService.remove(VEHICLE_ID);
+    InferenceService.remove(OTHER_VEHICLE_ID);
+  }
+
+  @Test
+  public void testRejectedObservationCanBeRetried() {
+    final IngestionLimiter limiter = InferenceService
+        .getIngestionLimiter();
+    final int maxPending = limiter.getMaxPending();
+    for (int i = 0; i < maxPending; i++) {
+      assertEquals(IngestionLimiter.Decision.ACCEPT,
+          limiter.tryAcquire(OTHER_VEHICLE_ID));
+    }
+
+    final Response rejected = postLocation("2012-01-01 10:00:00");
+    assertStatus(503, rejected);
+    assertEquals(String.valueOf(limiter.getRetryAfterSeconds()),
+        rejected.getHeader("Retry-After"));
+
+    for (int i = 0; i < maxPending; i++) {
+      limiter.release(OTHER_VEHICLE_ID);
+    }
+
+    /*
+     * The rejected observation was never registered, so resending it isn't
+     * out of time order.
+     */
+    assertIsOk(postLocation("2012-01-01 10:00:00"));
+  }
+
+  private static Response postLocation(String timestamp) {
+    return POST("/Api/location", "application/x-www-form-urlencoded",
+        "vehicleId=" + VEHICLE_ID + "&timestamp="
+            + timestamp.replace(" ", "+")
+            + "&latStr=45.52&lonStr=-122.68");
+  }
+
+}
@@ -0,0 +1,101 @@
+package inference;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+import models.InferenceInstance;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openplans.tools.tracking.impl.Observation;
+
+import play.test.UnitTest;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class InferenceServiceTest extends UnitTest {
+
+  private static final String VEHICLE_ID = "inference-service-test";
+
+  private static class Latch implements Runnable {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    @Override
+    public void run() {
+      try {
+        latch.await();
+      } catch (final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+    InferenceService.remove(VEHICLE_ID);
+  }
+
+  @Test
+  public void testCoalescedObservationsAreSkipped() throws Exception {
+    final IngestionLimiter limiter = InferenceService
+        .getIngestionLimiter();
+    assertEquals(IngestionLimiter.Policy.COALESCE, limiter.getPolicy());
+
+    final Observation first = admit(0);
+    awaitQueued();
+
+    /*
+     * Hold the mailbox so the next observations queue up behind it.
+     */
+    final Latch hold = new Latch();
+    InferenceService.post(VEHICLE_ID, hold);
+    final long coalesced = limiter.getStats().getCoalesced();
+    final int count = 3;
+    Observation last = null;
+    for (int i = 1; i <= count; i++) {
+      last = admit(i);
+    }
+    hold.latch.countDown();
+    awaitQueued();
+
+    /*
+     * The hold and one update fit within the per-vehicle limit, so all but
+     * the last observation were coalesced away.
+     */
+    assertEquals(count - 1, limiter.getStats().getCoalesced() - coalesced);
+    assertEquals(0, limiter.getPending(VEHICLE_ID));
+
+    final InferenceInstance instance = InferenceService
+        .getInferenceInstance(VEHICLE_ID);
+    final Observation processed = instance.getLastObservation();
+    assertEquals(last, processed);
+    assertEquals(first, processed.getPreviousObservation());
+  }
+
+  private static Observation admit(int i) throws Exception {
+    final IngestionLimiter limiter = InferenceService
+        .getIngestionLimiter();
+    assertNotSame(IngestionLimiter.Decision.REJECT,
+        limiter.tryAcquire(VEHICLE_ID));
+    final Observation obs = Observation.createObservation(VEHICLE_ID,
+        new Date(1325412000000l + i * 30000l), new Coordinate(45.52,
+            -122.68), null, null, null);
+    InferenceService.processRecord(obs);
+    return obs;
+  }
+
+  /**
+   * Waits for the vehicle's queued tasks to run.
+   */
+  private static void awaitQueued() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    InferenceService.post(VEHICLE_ID, new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+    done.await();
+  }
+
+}
@@ -0,0 +1,186 @@
+package inference;
+
+import inference.InferenceResultRecord.ResultSet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import play.test.UnitTest;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class ResultRecordStoreTest extends UnitTest {
+
+  private File spillDir;
+
+  @Before
+  public void setUp() {
+    spillDir = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() {
+    final File[] files = spillDir.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        file.delete();
+      }
+    }
+    spillDir.delete();
+  }
+
+  @Test
+  public void testSpilledRecordsReadBack() {
+    final ResultRecordStore store = new ResultRecordStore("test", 2,
+        spillDir, null);
+    for (int i = 0; i < 5; i++) {
+      store.add(createRecord(i));
+    }
+
+    assertEquals(5, store.size());
+    assertEquals(0, store.getFirstRecordNumber());
+    for (int i = 0; i < 5; i++) {
+      assertRecord(i, store.get(i));
+    }
+    assertNull(store.find(5));
+    store.close();
+  }
+
+  @Test
+  public void testReadAcrossSegmentRollover() {
+    final ResultRecordStore store = new ResultRecordStore("test", 1,
+        spillDir, null, 1024);
+    for (int i = 0; i < 50; i++) {
+      store.add(createRecord(i));
+    }
+
+    assertTrue(spillDir.listFiles().length > 1);
+    for (int i = 0; i < 50; i++) {
+      assertRecord(i, store.get(i));
+    }
+    /*
+     * Out of order, so reads move between segments and windows.
+     */
+    for (int i = 49; i >= 0; i -= 7) {
+      assertRecord(i, store.find(i));
+    }
+    store.close();
+  }
+
+  @Test
+  public void testSingleResult() {
+    final ResultRecordStore store = new ResultRecordStore("test", 1,
+        null, null);
+    final List<InferenceResultRecord> records = Lists.newArrayList();
+    for (int i = 0; i < 3; i++) {
+      records.add(createRecord(i));
+      store.add(records.get(i));
+    }
+
+    assertEquals(1, store.size());
+    assertEquals(2, store.getFirstRecordNumber());
+    assertEquals(3, store.getTotalRecords());
+    assertSame(records.get(2), store.get(0));
+    assertNull(store.find(1));
+  }
+
+  @Test
+  public void testFindAfterClose() {
+    final ResultRecordStore store = new ResultRecordStore("test", 2,
+        spillDir, null);
+    final List<InferenceResultRecord> records = Lists.newArrayList();
+    for (int i = 0; i < 4; i++) {
+      records.add(createRecord(i));
+      store.add(records.get(i));
+    }
+    store.close();
+
+    assertEquals(0, spillDir.listFiles().length);
+    assertNull(store.find(0));
+    assertNull(store.find(1));
+    assertSame(records.get(2), store.find(2));
+    assertSame(records.get(3), store.find(3));
+
+    /*
+     * Records evicted after closing aren't spilled, but newer ones are
+     * still kept.
+     */
+    final InferenceResultRecord last = createRecord(4);
+    store.add(last);
+    assertNull(store.find(2));
+    assertSame(last, store.find(4));
+  }
+
+  private static void assertRecord(int i, InferenceResultRecord record) {
+    assertNotNull(record);
+    assertEquals("time " + i, record.getTime());
+    assertEquals(new Coordinate(i, -i), record.getObservedCoords());
+    if (i % 2 == 0)
+      assertNull(record.getActualResults());
+    else
+      assertResultSet(i + 100, record.getActualResults());
+    assertResultSet(i, record.getInfResults());
+  }
+
+  private static void assertResultSet(int i, ResultSet results) {
+    assertNotNull(results);
+    assertEquals(new Coordinate(i, 1d), results.getMeanCoords());
+    assertEquals(new Coordinate(i, 2d), results.getMajorAxisCoords());
+    assertNull(results.getMinorAxisCoords());
+    assertEquals(i % 3 == 0 ? null : Double.valueOf(i), results
+        .getPathDirection());
+
+    final OsmSegmentWithVelocity edge = results.getInferredEdge();
+    if (i % 2 == 0) {
+      assertEquals(-1, edge.getId());
+      assertEquals("empty", edge.getName());
+      assertNull(edge.getVelocity());
+    } else {
+      assertEquals(i, edge.getId());
+      assertEquals(Double.valueOf(i / 2d), edge.getVelocity());
+    }
+
+    final List<OsmSegmentWithVelocity> path = results.getPathSegments();
+    assertEquals(i % 4, path.size());
+    for (int j = 0; j < path.size(); j++) {
+      assertEquals(i + j, path.get(j).getId());
+      assertEquals(j == 0 ? null : Double.valueOf(j), path.get(j)
+          .getVelocity());
+    }
+
+    assertTrue(Arrays.equals(new double[] { i, 0.5d * i },
+        results.getStateMean()));
+    assertTrue(Arrays.equals(new double[] { 1d, 0d, 0d, i },
+        results.getStateCovariance()));
+  }
+
+  /**
+   * Even records have no actual results and an empty inferred edge.
+   */
+  private static InferenceResultRecord createRecord(int i) {
+    return new InferenceResultRecord("time " + i, new Coordinate(i, -i),
+        i % 2 == 0 ? null : createResultSet(i + 100), createResultSet(i));
+  }
+
+  private static ResultSet createResultSet(int i) {
+    final OsmSegmentWithVelocity edge = i % 2 == 0
+        ? new OsmSegmentWithVelocity(-1, null, "empty", null)
+        : new OsmSegmentWithVelocity(i, null, null, i / 2d);
+    final List<OsmSegmentWithVelocity> path = Lists.newArrayList();
+    for (int j = 0; j < i % 4; j++) {
+      path.add(new OsmSegmentWithVelocity(i + j, null, null, j == 0
+          ? null : Double.valueOf(j)));
+    }
+    return new ResultSet(new Coordinate(i, 1d), new Coordinate(i, 2d),
+        null, path, i % 3 == 0 ? null : Double.valueOf(i), edge,
+        new double[] { i, 0.5d * i }, new double[] { 1d, 0d, 0d, i });
+  }
+
+}